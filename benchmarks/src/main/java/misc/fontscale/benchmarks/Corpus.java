@@ -0,0 +1,30 @@
+package misc.fontscale.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fixed set of glyphs to benchmark against, in unifont .hex format. Changing
+ * these makes results incomparable with earlier runs, so add new glyphs rather
+ * than editing existing ones.
+ */
+public final class Corpus {
+    public static final Map<String, String> GLYPHS = new LinkedHashMap<>();
+
+    static {
+        // Same fixtures as the unit tests
+        Corpus.GLYPHS.put("AT_SYMBOL", "000000001C224A565252524E201E0000");
+        Corpus.GLYPHS.put("NUL", "AAAA00018000000180004A51EA505A51C99E0001800000018000000180005555");
+        // Box-drawing pieces
+        Corpus.GLYPHS.put("BOX_CROSS", "0000000000101010FF10101010101010");
+        Corpus.GLYPHS.put("BOX_DOUBLE_CORNER", "0000000000003F202F28282828282828");
+        // Hand-drawn CJK-style glyphs, from a plain grid through to a dense one
+        Corpus.GLYPHS.put("CJK_FIELD", "00007FFE408240824082408240827FFE408240824082408240827FFE40020000");
+        Corpus.GLYPHS.put("CJK_GATE", "00007E7E42427E7E42427E7E4002400240024002400240024002400A40060000");
+        Corpus.GLYPHS.put("CJK_COUNTRY", "00007FFE40025FFA408240824FE240A2409240825FFA40027FFE400200000000");
+        Corpus.GLYPHS.put("CJK_DENSE", "01007FFC01003FF821083FF821083FF80100FFFE2AA87FFC2248552494920000");
+    }
+
+    private Corpus() {
+    }
+}
@@ -0,0 +1,125 @@
+package misc.fontscale.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import misc.fontscale.Geometry;
+import misc.fontscale.GlyphScaler;
+import misc.fontscale.RasterGlyph;
+import misc.fontscale.VectorGlyph;
+
+/**
+ * Time each stage of the trace and scale pipeline, for each glyph in the
+ * {@link Corpus}. Stages which modify a glyph in place start from a fresh copy,
+ * built outside of the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TracePipelineBenchmark {
+    @Param({ "AT_SYMBOL", "NUL", "BOX_CROSS", "BOX_DOUBLE_CORNER", "CJK_FIELD", "CJK_GATE", "CJK_COUNTRY",
+            "CJK_DENSE" })
+    public String glyph;
+
+    /**
+     * Glyphs for stages which change the glyph in place, rebuilt before every
+     * call.
+     */
+    @State(Scope.Thread)
+    public static class Fresh {
+        VectorGlyph joined;
+
+        VectorGlyph unjoined;
+
+        @Setup(Level.Invocation)
+        public void setUp(final TracePipelineBenchmark trial) {
+            this.unjoined = trial.raster.toVectorGlyph();
+            this.joined = trial.raster.toVectorGlyph();
+            this.joined.joinAdjacentVertices();
+            this.joined.disconnectDottedOutline();
+            this.joined.disconnectFilledAreas();
+        }
+    }
+
+    private String hex;
+
+    private RasterGlyph raster;
+
+    private VectorGlyph scaled;
+
+    private Geometry srcGeometry;
+
+    private Geometry dstGeometry;
+
+    private VectorGlyph traced;
+
+    /**
+     * Built once, as scalers do for each target.
+     */
+    private Geometry.Transform transform;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        this.hex = Corpus.GLYPHS.get(this.glyph);
+        this.raster = RasterGlyph.fromUnifontHex(this.hex);
+        this.traced = GlyphScaler.trace(this.raster);
+        this.srcGeometry = this.traced.getInternalGeometry();
+        this.dstGeometry = new Geometry(this.raster.getWidth() * 3 / 2, 24);
+        this.transform = this.srcGeometry.transformTo(this.dstGeometry);
+        this.scaled = this.copyFrom();
+    }
+
+    @Benchmark
+    public RasterGlyph fromUnifontHex() {
+        return RasterGlyph.fromUnifontHex(this.hex);
+    }
+
+    @Benchmark
+    public VectorGlyph toVectorGlyph() {
+        return this.raster.toVectorGlyph();
+    }
+
+    @Benchmark
+    public VectorGlyph joinAdjacentVertices(final Fresh fresh) {
+        fresh.unjoined.joinAdjacentVertices();
+        return fresh.unjoined;
+    }
+
+    @Benchmark
+    public VectorGlyph combineEdges(final Fresh fresh) {
+        fresh.joined.combineEdges();
+        return fresh.joined;
+    }
+
+    @Benchmark
+    public VectorGlyph copyFrom() {
+        final VectorGlyph ret = new VectorGlyph(this.dstGeometry.getWidth(), this.dstGeometry.getHeight());
+        ret.copyFrom(this.traced, this.transform);
+        return ret;
+    }
+
+    @Benchmark
+    public RasterGlyph toRasterGlyph() {
+        return this.scaled.toRasterGlyph();
+    }
+
+    @Benchmark
+    public String toSvg() {
+        return this.traced.toSvg();
+    }
+}
@@ -0,0 +1,156 @@
+package misc.fontscale;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Write glyphs to a single font file in BDF format, eg. for conversion to PCF
+ * with bdftopcf.
+ *
+ * Glyphs are encoded into one re-used buffer and written to the file in large
+ * blocks. The number of glyphs is not known until the end, so the CHARS line
+ * is written as a placeholder and filled in on close().
+ */
+public class BdfWriter implements GlyphSink, Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int COUNT_DIGITS = 10;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BdfWriter.BUFFER_SIZE);
+
+    private final FileChannel channel;
+
+    private int count = 0;
+
+    /**
+     * Offset in the file of the glyph count.
+     */
+    private final long countOffset;
+
+    private final int descent;
+
+    private final int height;
+
+    private final char[] number = new char[11];
+
+    /**
+     * @param path
+     *            File to write
+     * @param family
+     *            Family name for the font, eg. "Unifont"
+     * @param width
+     *            Width of each glyph, in pixels
+     * @param height
+     *            Height of each glyph, in pixels
+     * @param descent
+     *            Number of rows below the baseline
+     * @throws IOException
+     *             If the file can't be written
+     */
+    public BdfWriter(final Path path, final String family, final int width, final int height, final int descent)
+            throws IOException {
+        this.height = height;
+        this.descent = descent;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        // Pixel size is the same as the point size at 72 DPI
+        this.put("STARTFONT 2.1\nFONT -misc-" + family + "-Medium-R-Normal--" + height + "-" + (height * 10)
+                + "-72-72-C-" + (width * 10) + "-ISO10646-1\n");
+        this.put("SIZE " + height + " 72 72\n");
+        this.put("FONTBOUNDINGBOX " + width + " " + height + " 0 " + (-descent) + "\n");
+        this.put("STARTPROPERTIES 2\nFONT_ASCENT " + (height - descent) + "\nFONT_DESCENT " + descent
+                + "\nENDPROPERTIES\nCHARS ");
+        this.countOffset = this.buffer.position();
+        this.put(0, BdfWriter.COUNT_DIGITS);
+        this.buffer.put((byte) '\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.put("ENDFONT\n");
+            this.flush();
+            final String count = String.format("%0" + BdfWriter.COUNT_DIGITS + "d", this.count);
+            this.channel.write(ByteBuffer.wrap(count.getBytes(StandardCharsets.US_ASCII)), this.countOffset);
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        ((Buffer) this.buffer).flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        ((Buffer) this.buffer).clear();
+    }
+
+    private void put(int value, final int minDigits) {
+        int pos = this.number.length;
+        final boolean negative = value < 0;
+        if (negative) {
+            value = -value;
+        }
+        do {
+            this.number[--pos] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while ((value != 0) || ((this.number.length - pos) < minDigits));
+        if (negative) {
+            this.number[--pos] = '-';
+        }
+        while (pos < this.number.length) {
+            this.buffer.put((byte) this.number[pos++]);
+        }
+    }
+
+    private void put(final String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            this.buffer.put((byte) ascii.charAt(i));
+        }
+    }
+
+    @Override
+    public void write(final FontGlyph glyph) throws IOException {
+        final RasterGlyph raster = glyph.getRaster();
+        final int rowDigits = ((raster.getWidth() + 7) / 8) * 2;
+        // Room for the glyph header as well as the bitmap
+        final int needed = 256 + ((rowDigits + 1) * raster.getHeight());
+        if (this.buffer.remaining() < needed) {
+            this.flush();
+            if (this.buffer.capacity() < needed) {
+                this.buffer = ByteBuffer.allocate(needed);
+            }
+        }
+        this.put("STARTCHAR U+");
+        final String hex = Integer.toHexString(glyph.getCodepoint()).toUpperCase();
+        for (int i = hex.length(); i < 4; i++) {
+            this.buffer.put((byte) '0');
+        }
+        this.put(hex);
+        this.put("\nENCODING ");
+        this.put(glyph.getCodepoint(), 1);
+        this.put("\nSWIDTH ");
+        this.put((raster.getWidth() * 1000) / this.height, 1);
+        this.put(" 0\nDWIDTH ");
+        this.put(raster.getWidth(), 1);
+        this.put(" 0\nBBX ");
+        this.put(raster.getWidth(), 1);
+        this.buffer.put((byte) ' ');
+        this.put(raster.getHeight(), 1);
+        this.put(" 0 ");
+        this.put(-this.descent, 1);
+        this.put("\nBITMAP\n");
+        for (int y = 0; y < raster.getHeight(); y++) {
+            raster.putHexRow(y, this.buffer);
+            this.buffer.put((byte) '\n');
+        }
+        this.put("ENDCHAR\n");
+        this.count++;
+    }
+}
@@ -0,0 +1,73 @@
+package misc.fontscale;
+
+/**
+ * Walks the pixels of a line, so that anything which needs to know which
+ * pixels a line covers will agree with the raster output exactly.
+ */
+final class Bresenham {
+    interface PixelVisitor {
+        void visit(int x, int y);
+    }
+
+    static void line(final int x0, final int x1, final int y0, final int y1, final PixelVisitor visitor) {
+        // https://en.wikipedia.org/wiki/Bresenham%27s_line_algorithm
+        if (Math.abs(y1 - y0) < Math.abs(x1 - x0)) {
+            if (x0 > x1) {
+                Bresenham.lineLow(x1, y1, x0, y0, visitor);
+            } else {
+                Bresenham.lineLow(x0, y0, x1, y1, visitor);
+            }
+        } else {
+            if (y0 > y1) {
+                Bresenham.lineHigh(x1, y1, x0, y0, visitor);
+            } else {
+                Bresenham.lineHigh(x0, y0, x1, y1, visitor);
+            }
+        }
+    }
+
+    private static void lineHigh(final int x0, final int y0, final int x1, final int y1,
+            final PixelVisitor visitor) {
+        int dx = x1 - x0;
+        final int dy = y1 - y0;
+        int xi = 1;
+        if (dx < 0) {
+            xi = -1;
+            dx = -dx;
+        }
+        int D = (2 * dx) - dy;
+        int x = x0;
+        for (int y = y0; y <= y1; y++) {
+            visitor.visit(x, y);
+            if (D > 0) {
+                x = x + xi;
+                D = D - (2 * dy);
+            }
+            D = D + (2 * dx);
+        }
+    }
+
+    private static void lineLow(final int x1, final int y1, final int x2, final int y2,
+            final PixelVisitor visitor) {
+        final int dx = x2 - x1;
+        int dy = y2 - y1;
+        int yi = 1;
+        if (dy < 0) {
+            yi = -1;
+            dy = -dy;
+        }
+        int D = (2 * dy) - dx;
+        int y = y1;
+        for (int x = x1; x <= x2; x++) {
+            visitor.visit(x, y);
+            if (D > 0) {
+                y = y + yi;
+                D = D - (2 * dx);
+            }
+            D = D + (2 * dy);
+        }
+    }
+
+    private Bresenham() {
+    }
+}
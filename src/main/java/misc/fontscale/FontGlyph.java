@@ -0,0 +1,23 @@
+package misc.fontscale;
+
+/**
+ * A raster glyph along with the codepoint it is drawn for.
+ */
+public class FontGlyph {
+    private final int codepoint;
+
+    private final RasterGlyph raster;
+
+    public FontGlyph(final int codepoint, final RasterGlyph raster) {
+        this.codepoint = codepoint;
+        this.raster = raster;
+    }
+
+    public int getCodepoint() {
+        return this.codepoint;
+    }
+
+    public RasterGlyph getRaster() {
+        return this.raster;
+    }
+}
@@ -1,9 +1,85 @@
 package misc.fontscale;
 
 public class Geometry {
-    private int width;
-    private int height;
-    private int offsetX;
+    /**
+     * Mapping of points from one geometry to another, with the arithmetic done
+     * up front. Build one with {@link Geometry#transformTo(Geometry)} and reuse it
+     * for every glyph with the same geometry.
+     */
+    public static class Transform {
+        private final Geometry src;
+
+        private final Geometry dst;
+
+        private final int[] xs;
+
+        private final int[] ys;
+
+        private Transform(final Geometry src, final Geometry dst) {
+            this.src = src;
+            this.dst = dst;
+            // Covers every point from the origin to the far edge of the source
+            this.xs = new int[Math.max(src.offsetX + src.width, 0)];
+            for (int x = 0; x < this.xs.length; x++) {
+                this.xs[x] = this.computeX(x);
+            }
+            this.ys = new int[Math.max(src.offsetY + src.height, 0)];
+            for (int y = 0; y < this.ys.length; y++) {
+                this.ys[y] = this.computeY(y);
+            }
+        }
+
+        private int computeX(final int x) {
+            return Geometry.transformPoint(x - this.src.offsetX, this.src.width, this.dst.width) + this.dst.offsetX;
+        }
+
+        private int computeY(final int y) {
+            return Geometry.transformPoint(y - this.src.offsetY, this.src.height, this.dst.height) + this.dst.offsetY;
+        }
+
+        public Geometry getDst() {
+            return this.dst;
+        }
+
+        public Geometry getSrc() {
+            return this.src;
+        }
+
+        /**
+         * @return Transformed point, packed with {@link Geometry#pack(int, int)}.
+         */
+        public int transform(final int x, final int y) {
+            return Geometry.pack(this.transformX(x), this.transformY(y));
+        }
+
+        public int transformX(final int x) {
+            return ((x >= 0) && (x < this.xs.length)) ? this.xs[x] : this.computeX(x);
+        }
+
+        public int transformY(final int y) {
+            return ((y >= 0) && (y < this.ys.length)) ? this.ys[y] : this.computeY(y);
+        }
+    }
+
+    /**
+     * Pack a point into one int, to pass points around without allocating. Each
+     * coordinate must fit in a short.
+     */
+    public static int pack(final int x, final int y) {
+        return (x << 16) | (y & 0xFFFF);
+    }
+
+    public static int unpackX(final int point) {
+        return point >> 16;
+    }
+
+    public static int unpackY(final int point) {
+        return (short) point;
+    }
+
+    private final int width;
+    private final int height;
+    private final int offsetX;
     public int getWidth() {
         return width;
     }
@@ -20,18 +96,14 @@ public class Geometry {
         return offsetY;
     }
 
-    private int offsetY;
+    private final int offsetY;
 
     public Geometry(String spec) {
       String[] part = spec.split("[x\\+]");
       this.width = Integer.parseInt(part[0]);
       this.height = Integer.parseInt(part[1]);
-      if(part.length > 2) {
-          this.offsetX = Integer.parseInt(part[2]);
-      }
-      if(part.length > 3) {
-          this.offsetY = Integer.parseInt(part[3]);
-      }
+      this.offsetX = (part.length > 2) ? Integer.parseInt(part[2]) : 0;
+      this.offsetY = (part.length > 3) ? Integer.parseInt(part[3]) : 0;
     }
 
     public Geometry(int width, int height) {
@@ -45,6 +117,21 @@ public class Geometry {
         this.offsetY = offsetY;
     }
     
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof Geometry)) {
+            return false;
+        }
+        final Geometry other = (Geometry) obj;
+        return (this.width == other.width) && (this.height == other.height) && (this.offsetX == other.offsetX)
+                && (this.offsetY == other.offsetY);
+    }
+
+    @Override
+    public int hashCode() {
+        return (((((this.width * 31) + this.height) * 31) + this.offsetX) * 31) + this.offsetY;
+    }
+
     public String toString() {
         return width + "x" + height + "+" + offsetX + "+" + offsetY; 
     }
@@ -55,7 +142,11 @@ public class Geometry {
         return new DiscretePoint(newX, newY);
     }
 
-    private int transformPoint(int val, int oldSize, int newSize) {
+    public Transform transformTo(final Geometry dst) {
+        return new Transform(this, dst);
+    }
+
+    private static int transformPoint(int val, int oldSize, int newSize) {
         // Linear interpolation: 0 => 0, (oldWidth - 1) => (newWidth - 1).
         if(oldSize == 1) {
             return 0;
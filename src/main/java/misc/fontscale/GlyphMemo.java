@@ -0,0 +1,122 @@
+package misc.fontscale;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of work done on each distinct bitmap, so that glyphs which
+ * are exact duplicates of each other are only traced and scaled once per run.
+ *
+ * Least-recently used entries are dropped once the estimated size of the cache
+ * goes over a limit.
+ *
+ * @param <V>
+ *            Result to remember for each bitmap
+ */
+public class GlyphMemo<V> {
+    private static class Entry<V> {
+        final long bytes;
+
+        final V value;
+
+        Entry(final V value, final long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Rough number of bytes used by a raster glyph.
+     */
+    public static long sizeOf(final RasterGlyph raster) {
+        return 64 + ((((raster.getWidth() + 63) / 64) * raster.getHeight()) * 8L);
+    }
+
+    /**
+     * Rough number of bytes used by a vector glyph.
+     */
+    public static long sizeOf(final VectorGlyph vector) {
+        final Geometry geometry = vector.getGeometry();
+        // Vertex index and pixel coverage, plus each vertex
+        return 128 + ((geometry.getWidth() * geometry.getHeight()) * 8L) + (vector.getVertices().size() * 56L);
+    }
+
+    private long bytes = 0;
+
+    private final Map<RasterGlyph, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int hits = 0;
+
+    private final long maxBytes;
+
+    private int misses = 0;
+
+    /**
+     * @param maxBytes
+     *            Approximate limit on memory used by the cache.
+     */
+    public GlyphMemo(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Look up the result for a bitmap.
+     *
+     * @return The result, or null if there isn't one.
+     */
+    public synchronized V get(final RasterGlyph raster) {
+        final Entry<V> entry = this.entries.get(raster);
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return entry.value;
+    }
+
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    public synchronized int getHits() {
+        return this.hits;
+    }
+
+    public synchronized int getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Remember the result for a bitmap.
+     *
+     * @param raster
+     *            Bitmap. A copy is kept, so it is safe to modify this afterwards.
+     * @param value
+     *            Result, which must not be modified after this.
+     * @param bytes
+     *            Approximate size of the result.
+     */
+    public synchronized void put(final RasterGlyph raster, final V value, final long bytes) {
+        final RasterGlyph key = new RasterGlyph(raster);
+        final long entryBytes = bytes + GlyphMemo.sizeOf(key);
+        if (entryBytes > this.maxBytes) {
+            return;
+        }
+        final Entry<V> old = this.entries.put(key, new Entry<>(value, entryBytes));
+        if (old != null) {
+            this.bytes -= old.bytes;
+        }
+        this.bytes += entryBytes;
+        // Evict least-recently used
+        final Iterator<Entry<V>> it = this.entries.values().iterator();
+        while (this.bytes > this.maxBytes) {
+            this.bytes -= it.next().bytes;
+            it.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+}
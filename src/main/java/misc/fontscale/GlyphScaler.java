@@ -0,0 +1,453 @@
+package misc.fontscale;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Trace and redraw pipeline for scaling a single glyph, shared by every command
+ * which needs to scale glyphs.
+ *
+ * Tracing is by far the slowest step, so a glyph can be scaled to several
+ * target sizes at once, and is only traced once.
+ */
+public class GlyphScaler {
+    /**
+     * Traced glyph and its scaled rasters, as remembered for duplicate bitmaps.
+     */
+    public static class Result {
+        private final RasterGlyph[] scaled;
+
+        private final VectorGlyph traced;
+
+        public Result(final VectorGlyph traced, final RasterGlyph[] scaled) {
+            this.traced = traced;
+            this.scaled = scaled;
+        }
+
+        /**
+         * @return One raster per target, in the same order as the targets.
+         */
+        public RasterGlyph[] getScaled() {
+            return this.scaled;
+        }
+
+        public VectorGlyph getTraced() {
+            return this.traced;
+        }
+    }
+
+    /**
+     * A size to scale glyphs to.
+     */
+    public static class Target {
+        private final Geometry dstCanvas;
+
+        private final Geometry dstGeometry;
+
+        /**
+         * Transforms from each source geometry seen so far. With "detect" there is
+         * one per distinct glyph extent, which is a few hundred at most.
+         */
+        private final Map<Geometry, Geometry.Transform> transforms = new ConcurrentHashMap<>();
+
+        /**
+         * Copies of this target for glyphs several times as wide as a narrow one,
+         * by how many times.
+         */
+        private final Map<Integer, Target> widened = new ConcurrentHashMap<>();
+
+        /**
+         * @param dimensions
+         *            Size of the output glyph, eg "12x24".
+         * @param dstGeometrySpec
+         *            Area of output glyph to draw into: "full", or a geometry such
+         *            as "11x20+0+1".
+         */
+        public Target(final String dimensions, final String dstGeometrySpec) {
+            this.dstCanvas = new Geometry(dimensions);
+            if (dstGeometrySpec.equals("full")) {
+                this.dstGeometry = this.dstCanvas;
+            } else {
+                this.dstGeometry = new Geometry(dstGeometrySpec);
+            }
+        }
+
+        private Target(final Geometry dstCanvas, final Geometry dstGeometry) {
+            this.dstCanvas = dstCanvas;
+            this.dstGeometry = dstGeometry;
+        }
+
+        public Geometry getDstCanvas() {
+            return this.dstCanvas;
+        }
+
+        public Geometry getDstGeometry() {
+            return this.dstGeometry;
+        }
+
+        /**
+         * @return Transform from the given source geometry into this target, shared
+         *         between threads.
+         */
+        public Geometry.Transform getTransform(final Geometry srcGeometry) {
+            return this.transforms.computeIfAbsent(srcGeometry, src -> src.transformTo(this.dstGeometry));
+        }
+
+        /**
+         * @return This target with the canvas and the area drawn into stretched
+         *         across to the given number of times as wide, shared between
+         *         threads.
+         */
+        public Target widen(final int factor) {
+            if (factor == 1) {
+                return this;
+            }
+            return this.widened.computeIfAbsent(factor, k -> new Target(GlyphScaler.widen(this.dstCanvas, k),
+                    GlyphScaler.widen(this.dstGeometry, k)));
+        }
+    }
+
+    /**
+     * Version of the tracing algorithm. Bump this whenever a change to tracing
+     * would give different results, so that cached traces are discarded.
+     */
+    public static final int TRACE_VERSION = 2;
+
+    /**
+     * Build a list of targets from comma-separated lists of sizes and geometries.
+     *
+     * @param dimensions
+     *            Sizes, eg "12x24,16x32".
+     * @param dstGeometrySpec
+     *            One geometry for every size, eg "full", or one geometry per
+     *            size, eg "11x20+0+1,15x28+0+2".
+     * @return Targets, in the order given.
+     */
+    public static List<Target> parseTargets(final String dimensions, final String dstGeometrySpec) {
+        final String[] dimensionList = dimensions.split(",");
+        final String[] geometryList = dstGeometrySpec.split(",");
+        if ((geometryList.length != 1) && (geometryList.length != dimensionList.length)) {
+            throw new IllegalArgumentException("Need one destination geometry, or one per size");
+        }
+        final List<Target> ret = new ArrayList<>(dimensionList.length);
+        for (int i = 0; i < dimensionList.length; i++) {
+            ret.add(new Target(dimensionList[i], geometryList[geometryList.length == 1 ? 0 : i]));
+        }
+        return ret;
+    }
+
+    /**
+     * Trace a raster glyph into a simplified vector glyph.
+     *
+     * @param raster
+     *            Glyph to trace
+     * @return Traced glyph
+     */
+    public static VectorGlyph trace(final RasterGlyph raster) {
+        return GlyphScaler.trace(raster, TraceListener.NONE);
+    }
+
+    /**
+     * Trace a raster glyph into a simplified vector glyph, reporting how long each
+     * stage took.
+     *
+     * @param raster
+     *            Glyph to trace
+     * @param listener
+     *            Receives timings and counts
+     * @return Traced glyph
+     */
+    public static VectorGlyph trace(final RasterGlyph raster, final TraceListener listener) {
+        return GlyphScaler.trace(raster, listener, TraceBudget.UNLIMITED);
+    }
+
+    /**
+     * Trace a raster glyph into a vector glyph, simplifying it until the budget
+     * runs out, and reporting how long each stage took.
+     *
+     * @param raster
+     *            Glyph to trace
+     * @param listener
+     *            Receives timings and counts
+     * @param budget
+     *            Limit on simplification. If it runs out, the result is flagged
+     *            with {@link VectorGlyph#isOverBudget()}.
+     * @return Traced glyph
+     */
+    public static VectorGlyph trace(final RasterGlyph raster, final TraceListener listener,
+            final TraceBudget budget) {
+        long start = System.nanoTime();
+        final VectorGlyph vector = raster.toVectorGlyph();
+        vector.setListener(listener);
+        vector.joinAdjacentVertices();
+        long end = System.nanoTime();
+        listener.stage(TraceListener.Stage.JOIN, end - start);
+        start = end;
+        vector.disconnectDottedOutline();
+        vector.disconnectFilledAreas();
+        end = System.nanoTime();
+        listener.stage(TraceListener.Stage.DISCONNECT, end - start);
+        start = end;
+        vector.combineEdges(budget);
+        listener.stage(TraceListener.Stage.COMBINE_EDGES, System.nanoTime() - start);
+        vector.setListener(TraceListener.NONE);
+        return vector;
+    }
+
+    /**
+     * @return The geometry stretched across to the given number of times as
+     *         wide.
+     */
+    private static Geometry widen(final Geometry geometry, final int factor) {
+        return new Geometry(geometry.getWidth() * factor, geometry.getHeight(), geometry.getOffsetX() * factor,
+                geometry.getOffsetY());
+    }
+
+    private TraceBudget budget = TraceBudget.UNLIMITED;
+
+    private GlyphMemo<Result> memo = null;
+
+    private int narrowWidth = 0;
+
+    private final String srcGeometrySpec;
+
+    private final List<Target> targets;
+
+    private TraceCache traceCache = null;
+
+    /**
+     * Set up scaling to several new sizes at once.
+     *
+     * @param srcGeometrySpec
+     *            Area of source glyph to scale: "full", "detect", or a geometry
+     *            such as "8x16+0+0".
+     * @param targets
+     *            Sizes to scale to
+     */
+    public GlyphScaler(final String srcGeometrySpec, final List<Target> targets) {
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("Need at least one size to scale to");
+        }
+        this.srcGeometrySpec = srcGeometrySpec;
+        this.targets = Collections.unmodifiableList(new ArrayList<>(targets));
+    }
+
+    /**
+     * Set up scaling to a new size.
+     *
+     * @param srcGeometrySpec
+     *            Area of source glyph to scale: "full", "detect", or a geometry
+     *            such as "8x16+0+0".
+     * @param dimensions
+     *            Size of the output glyph, eg "12x24".
+     * @param dstGeometrySpec
+     *            Area of output glyph to draw into: "full", or a geometry such as
+     *            "11x20+0+1".
+     */
+    public GlyphScaler(final String srcGeometrySpec, final String dimensions, final String dstGeometrySpec) {
+        this(srcGeometrySpec, Collections.singletonList(new Target(dimensions, dstGeometrySpec)));
+    }
+
+    public Geometry getDstCanvas() {
+        return this.targets.get(0).getDstCanvas();
+    }
+
+    public Geometry getDstGeometry() {
+        return this.targets.get(0).getDstGeometry();
+    }
+
+    public Geometry getSrcGeometry(final VectorGlyph original) {
+        if (this.srcGeometrySpec.equals("detect")) {
+            return original.getInternalGeometry();
+        } else if (!this.srcGeometrySpec.equals("full")) {
+            // Given for a narrow glyph
+            return GlyphScaler.widen(new Geometry(this.srcGeometrySpec), this.getWidthFactor(original));
+        }
+        return original.getGeometry();
+    }
+
+    public List<Target> getTargets() {
+        return this.targets;
+    }
+
+    /**
+     * @return How many times as wide as a narrow glyph the glyph is, or 1 if it
+     *         is not a whole number of narrow glyphs wide.
+     */
+    public int getWidthFactor(final VectorGlyph original) {
+        final int width = original.getGeometry().getWidth();
+        if ((this.narrowWidth <= 0) || (width <= this.narrowWidth) || ((width % this.narrowWidth) != 0)) {
+            return 1;
+        }
+        return width / this.narrowWidth;
+    }
+
+    /**
+     * Trace, scale and redraw a raster glyph, at the first target size.
+     *
+     * @param original
+     *            Glyph to scale
+     * @return Glyph at the new size
+     */
+    public RasterGlyph scale(final RasterGlyph original) {
+        return this.scaleAll(original)[0];
+    }
+
+    /**
+     * Trace a raster glyph once, then scale and redraw it at every target size.
+     *
+     * @param original
+     *            Glyph to scale
+     * @return One glyph per target, in the same order as the targets.
+     */
+    public RasterGlyph[] scaleAll(final RasterGlyph original) {
+        return this.scaleAll(original, TraceListener.NONE);
+    }
+
+    /**
+     * Trace a raster glyph once, then scale and redraw it at every target size,
+     * reporting how long each stage took.
+     *
+     * @param original
+     *            Glyph to scale
+     * @param listener
+     *            Receives timings and counts
+     * @return One glyph per target, in the same order as the targets.
+     */
+    public RasterGlyph[] scaleAll(final RasterGlyph original, final TraceListener listener) {
+        if (this.memo == null) {
+            return this.scaleAll(this.traceCached(original, listener), listener);
+        }
+        Result result = this.memo.get(original);
+        if (result == null) {
+            final VectorGlyph traced = this.traceCached(original, listener);
+            result = new Result(traced, this.scaleAll(traced, listener));
+            long bytes = GlyphMemo.sizeOf(traced);
+            for (final RasterGlyph scaled : result.getScaled()) {
+                bytes += GlyphMemo.sizeOf(scaled);
+            }
+            this.memo.put(original, result, bytes);
+        } else if (result.getTraced().isOverBudget()) {
+            // Flag every copy of the glyph, not just the first
+            listener.count(TraceListener.Counter.BUDGET_EXCEEDED, 1);
+        }
+        // Remembered rasters are shared, so hand out copies
+        final RasterGlyph[] ret = new RasterGlyph[result.getScaled().length];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = new RasterGlyph(result.getScaled()[i]);
+        }
+        return ret;
+    }
+
+    private RasterGlyph[] scaleAll(final VectorGlyph traced, final TraceListener listener) {
+        final RasterGlyph[] ret = new RasterGlyph[this.targets.size()];
+        for (int i = 0; i < ret.length; i++) {
+            final long start = System.nanoTime();
+            final VectorGlyph scaled = this.scale(traced, this.targets.get(i));
+            final long end = System.nanoTime();
+            listener.stage(TraceListener.Stage.COPY, end - start);
+            ret[i] = scaled.toRasterGlyph();
+            listener.stage(TraceListener.Stage.RASTERIZE, System.nanoTime() - end);
+        }
+        return ret;
+    }
+
+    /**
+     * Limit the work which goes into simplifying each glyph.
+     */
+    public void setBudget(final TraceBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Give glyphs which are several narrow glyphs wide, such as the 16-wide
+     * glyphs in unifont, a canvas that many times as wide as each target.
+     *
+     * @param narrowWidth
+     *            Width of a narrow source glyph, or 0 to scale every glyph onto
+     *            the same canvas.
+     */
+    public void setNarrowWidth(final int narrowWidth) {
+        this.narrowWidth = narrowWidth;
+    }
+
+    /**
+     * Only trace and scale each distinct bitmap once, remembering results in
+     * memory.
+     */
+    public void setMemo(final GlyphMemo<Result> memo) {
+        this.memo = memo;
+    }
+
+    /**
+     * Re-use traces from an on-disk cache, adding new traces to it as they are
+     * made.
+     */
+    public void setTraceCache(final TraceCache traceCache) {
+        this.traceCache = traceCache;
+    }
+
+    /**
+     * Trace a glyph, or load the trace from the cache if there is one.
+     */
+    public VectorGlyph traceCached(final RasterGlyph raster) {
+        return this.traceCached(raster, TraceListener.NONE);
+    }
+
+    /**
+     * Trace a glyph, or load the trace from the cache if there is one, reporting
+     * how long tracing took.
+     */
+    public VectorGlyph traceCached(final RasterGlyph raster, final TraceListener listener) {
+        if (this.traceCache == null) {
+            return GlyphScaler.trace(raster, listener, this.budget);
+        }
+        VectorGlyph traced = this.traceCache.get(raster);
+        if (traced == null) {
+            traced = GlyphScaler.trace(raster, listener, this.budget);
+            if (traced.isOverBudget()) {
+                // Not the real trace, so a run with a bigger budget should try again
+                return traced;
+            }
+            try {
+                this.traceCache.put(raster, traced);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return traced;
+    }
+
+    /**
+     * Scale an already-traced glyph to the first target size.
+     *
+     * @param original
+     *            Traced glyph
+     * @return Traced glyph at the new size
+     */
+    public VectorGlyph scale(final VectorGlyph original) {
+        return this.scale(original, this.targets.get(0));
+    }
+
+    /**
+     * Scale an already-traced glyph.
+     *
+     * @param original
+     *            Traced glyph
+     * @param target
+     *            Size to scale to
+     * @return Traced glyph at the new size
+     */
+    public VectorGlyph scale(final VectorGlyph original, final Target target) {
+        final Target sized = target.widen(this.getWidthFactor(original));
+        final Geometry dstCanvas = sized.getDstCanvas();
+        final VectorGlyph ret = new VectorGlyph(dstCanvas.getWidth(), dstCanvas.getHeight());
+        ret.copyFrom(original, sized.getTransform(this.getSrcGeometry(original)));
+        return ret;
+    }
+}
@@ -0,0 +1,401 @@
+package misc.fontscale;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Scales single glyphs on request over HTTP, so that interactive tools don't
+ * pay for starting a new JVM for each glyph. Traces are remembered between
+ * requests, whatever size they were scaled to.
+ *
+ * <ul>
+ * <li>GET or POST /scale?hex=...&amp;src=detect&amp;size=12x24&amp;dst=full&amp;format=pbm
+ * scales one glyph. The format is pbm, svg, hex or txt. Everything but hex is
+ * optional, with the defaults shown, except size which defaults to 8x16.</li>
+ * <li>GET /stats gives request counts, queue depth and latency, as JSON.</li>
+ * </ul>
+ *
+ * Glyphs are scaled on a fixed pool of workers. Requests beyond what the
+ * workers and the queue can hold are turned away with 503, rather than
+ * waiting. Glyphs, sizes and geometries are limited to {@link #MAX_SIZE}
+ * pixels each way.
+ */
+public class GlyphServer implements Closeable {
+    /**
+     * Latencies of recent requests, to work out percentiles from.
+     */
+    private static class Latencies {
+        private final long[] nanos;
+
+        private int count = 0;
+
+        private long max = 0;
+
+        private long total = 0;
+
+        Latencies(final int size) {
+            this.nanos = new long[size];
+        }
+
+        synchronized void add(final long n) {
+            this.nanos[this.count % this.nanos.length] = n;
+            this.count++;
+            this.total += n;
+            this.max = Math.max(this.max, n);
+        }
+
+        synchronized String toJson() {
+            final long[] recent = Arrays.copyOf(this.nanos, Math.min(this.count, this.nanos.length));
+            Arrays.sort(recent);
+            return "{\"mean\": " + GlyphServer.millis(this.count == 0 ? 0 : this.total / this.count) + ", \"p50\": "
+                    + GlyphServer.millis(Latencies.percentile(recent, 50)) + ", \"p99\": "
+                    + GlyphServer.millis(Latencies.percentile(recent, 99)) + ", \"max\": "
+                    + GlyphServer.millis(this.max) + "}";
+        }
+
+        private static long percentile(final long[] sorted, final int percent) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[Math.min(sorted.length - 1, (sorted.length * percent) / 100)];
+        }
+    }
+
+    /**
+     * Time allowed to simplify each glyph unless told otherwise, so that one
+     * dense glyph can't hold up a worker for long.
+     */
+    public static final long DEFAULT_MAX_TRACE_MILLIS = 1000;
+
+    /**
+     * Most distinct geometries to keep a scaler for.
+     */
+    private static final int MAX_SCALERS = 256;
+
+    /**
+     * Largest width or height to scale to, so one request can't use up the
+     * memory of a worker.
+     */
+    private static final int MAX_SIZE = 256;
+
+    /**
+     * Number of recent requests to work out latency percentiles from.
+     */
+    private static final int RECENT_REQUESTS = 1024;
+
+    /**
+     * Check that a geometry stays within {@link #MAX_SIZE}, since scalers
+     * allocate tables and rasters which reach out to its far edges.
+     */
+    private static void checkGeometry(final String name, final String spec, final Geometry geometry) {
+        if ((geometry.getWidth() < 1) || (geometry.getHeight() < 1) || (geometry.getOffsetX() < 0)
+                || (geometry.getOffsetY() < 0)
+                || ((geometry.getOffsetX() + (long) geometry.getWidth()) > GlyphServer.MAX_SIZE)
+                || ((geometry.getOffsetY() + (long) geometry.getHeight()) > GlyphServer.MAX_SIZE)) {
+            throw new IllegalArgumentException(name + " " + spec + " is too big, at most " + GlyphServer.MAX_SIZE
+                    + " pixels each way");
+        }
+    }
+
+    private static String millis(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static Map<String, String> parseQuery(final String query) throws UnsupportedEncodingException {
+        final Map<String, String> ret = new HashMap<>();
+        for (final String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            final int eq = pair.indexOf('=');
+            if (eq < 0) {
+                ret.put(URLDecoder.decode(pair, "UTF-8"), "");
+            } else {
+                ret.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return ret;
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        final byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            ret.write(buf, 0, n);
+        }
+        return ret.toByteArray();
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String contentType,
+            final byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void sendText(final HttpExchange exchange, final int status, final String text)
+            throws IOException {
+        GlyphServer.send(exchange, status, "text/plain; charset=utf-8", (text + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private final Semaphore admission;
+
+    /**
+     * Requests turned away with 400 because of what they asked for.
+     */
+    private long badRequests = 0;
+
+    private TraceBudget budget = new TraceBudget(GlyphServer.DEFAULT_MAX_TRACE_MILLIS, 0);
+
+    /**
+     * Requests which failed with 500.
+     */
+    private long errors = 0;
+
+    private final ExecutorService handlers;
+
+    private final Latencies latencies = new Latencies(GlyphServer.RECENT_REQUESTS);
+
+    private final GlyphMemo<VectorGlyph> memo;
+
+    private long rejected = 0;
+
+    private long requests = 0;
+
+    private final Map<String, GlyphScaler> scalers = new ConcurrentHashMap<>();
+
+    private final HttpServer server;
+
+    private TraceCache traceCache = null;
+
+    private final ThreadPoolExecutor workers;
+
+    /**
+     * @param address
+     *            Address to listen on. Port 0 picks a free port.
+     * @param workers
+     *            Number of glyphs to scale at once
+     * @param queueSize
+     *            Number of requests to hold while all workers are busy
+     * @param memoBytes
+     *            Memory to use for remembering traces between requests
+     */
+    public GlyphServer(final InetSocketAddress address, final int workers, final int queueSize,
+            final long memoBytes) throws IOException {
+        final ThreadFactory daemons = r -> {
+            final Thread ret = new Thread(r, "glyph-server");
+            ret.setDaemon(true);
+            return ret;
+        };
+        this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                daemons);
+        this.admission = new Semaphore(workers + queueSize);
+        this.memo = new GlyphMemo<>(memoBytes);
+        // Handlers mostly wait on the workers, or turn requests away straight
+        // away, so there is no need to limit them separately
+        this.handlers = Executors.newCachedThreadPool(daemons);
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(this.handlers);
+        this.server.createContext("/scale", this::handleScale);
+        this.server.createContext("/stats", this::handleStats);
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.handlers.shutdownNow();
+        this.workers.shutdownNow();
+    }
+
+    /**
+     * @return Port the server is listening on.
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    private GlyphScaler getScaler(final String src, final String size, final String dst) {
+        final String key = src + " " + size + " " + dst;
+        GlyphScaler ret = this.scalers.get(key);
+        if (ret == null) {
+            if (!src.equals("detect") && !src.equals("full")) {
+                GlyphServer.checkGeometry("Source", src, new Geometry(src));
+            }
+            ret = new GlyphScaler(src, size, dst);
+            for (final GlyphScaler.Target target : ret.getTargets()) {
+                GlyphServer.checkGeometry("Size", size, target.getDstCanvas());
+                GlyphServer.checkGeometry("Destination", dst, target.getDstGeometry());
+            }
+            ret.setBudget(this.budget);
+            ret.setTraceCache(this.traceCache);
+            if (this.scalers.size() < GlyphServer.MAX_SCALERS) {
+                this.scalers.put(key, ret);
+            }
+        }
+        return ret;
+    }
+
+    private void handleScale(final HttpExchange exchange) throws IOException {
+        final long start = System.nanoTime();
+        synchronized (this) {
+            this.requests++;
+        }
+        try {
+            if (!this.admission.tryAcquire()) {
+                synchronized (this) {
+                    this.rejected++;
+                }
+                GlyphServer.sendText(exchange, 503, "Too many requests");
+                return;
+            }
+            try {
+                String query = exchange.getRequestURI().getRawQuery();
+                query = query == null ? "" : query;
+                if ("POST".equals(exchange.getRequestMethod())) {
+                    // Form parameters, same as in the query string
+                    query += "&" + new String(GlyphServer.readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+                }
+                final Map<String, String> params = GlyphServer.parseQuery(query);
+                final Future<byte[]> result = this.workers.submit(() -> this.scale(params));
+                final String format = params.getOrDefault("format", "pbm");
+                final byte[] body = result.get();
+                GlyphServer.send(exchange, 200, format.equals("svg") ? "image/svg+xml"
+                        : format.equals("pbm") ? "image/x-portable-bitmap" : "text/plain; charset=utf-8", body);
+            } finally {
+                this.admission.release();
+            }
+        } catch (final IllegalArgumentException e) {
+            // Badly encoded query, before it got to a worker
+            this.sendBadRequest(exchange, e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if ((cause instanceof IllegalArgumentException) || (cause instanceof IndexOutOfBoundsException)) {
+                this.sendBadRequest(exchange, cause);
+            } else {
+                synchronized (this) {
+                    this.errors++;
+                }
+                GlyphServer.sendText(exchange, 500, String.valueOf(cause));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            GlyphServer.sendText(exchange, 503, "Shutting down");
+        } finally {
+            this.latencies.add(System.nanoTime() - start);
+            exchange.close();
+        }
+    }
+
+    private void sendBadRequest(final HttpExchange exchange, final Throwable cause) throws IOException {
+        synchronized (this) {
+            this.badRequests++;
+        }
+        GlyphServer.sendText(exchange, 400, String.valueOf(cause.getMessage()));
+    }
+
+    private void handleStats(final HttpExchange exchange) throws IOException {
+        final String json;
+        synchronized (this) {
+            json = "{\n  \"requests\": " + this.requests + ",\n  \"rejected\": " + this.rejected
+                    + ",\n  \"badRequests\": " + this.badRequests + ",\n  \"errors\": " + this.errors
+                    + ",\n  \"active\": " + this.workers.getActiveCount() + ",\n  \"queued\": "
+                    + this.workers.getQueue().size() + ",\n  \"latencyMs\": " + this.latencies.toJson()
+                    + ",\n  \"traces\": {\"hits\": " + this.memo.getHits() + ", \"misses\": " + this.memo.getMisses()
+                    + "}\n}\n";
+        }
+        try {
+            GlyphServer.send(exchange, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Scale one glyph, as asked for by the parameters of a request.
+     */
+    private byte[] scale(final Map<String, String> params) {
+        final String hex = params.get("hex");
+        if (hex == null) {
+            throw new IllegalArgumentException("Need a glyph, as hex=...");
+        }
+        // Glyphs are 16 pixels high, at four pixels per digit
+        if (hex.length() > (GlyphServer.MAX_SIZE * 4)) {
+            throw new IllegalArgumentException("Glyph is too big, at most " + GlyphServer.MAX_SIZE + " pixels wide");
+        }
+        final String format = params.getOrDefault("format", "pbm");
+        if (!Arrays.asList("pbm", "svg", "hex", "txt").contains(format)) {
+            throw new IllegalArgumentException("Unknown format " + format);
+        }
+        final GlyphScaler scaler = this.getScaler(params.getOrDefault("src", "detect"),
+                params.getOrDefault("size", "8x16"), params.getOrDefault("dst", "full"));
+        final RasterGlyph raster = RasterGlyph.fromUnifontHex(hex);
+        VectorGlyph traced = this.memo.get(raster);
+        if (traced == null) {
+            traced = scaler.traceCached(raster);
+            if (!traced.isOverBudget()) {
+                // Same as the trace cache, a partial trace is tried again next time
+                this.memo.put(raster, traced, GlyphMemo.sizeOf(traced));
+            }
+        }
+        final VectorGlyph scaled = scaler.scale(traced);
+        switch (format) {
+        case "svg":
+            return scaled.toSvg().getBytes(StandardCharsets.UTF_8);
+        case "hex":
+            return (scaled.toRasterGlyph().toUnifontHex() + "\n").getBytes(StandardCharsets.US_ASCII);
+        case "txt":
+            return scaled.toRasterGlyph().toString().getBytes(StandardCharsets.US_ASCII);
+        default:
+            return scaled.toRasterGlyph().toPbm();
+        }
+    }
+
+    /**
+     * Limit the work which goes into simplifying each glyph, to keep latency
+     * down. Defaults to {@link #DEFAULT_MAX_TRACE_MILLIS}. Applies to scalers made after this is called, so call before
+     * {@link #start()}.
+     */
+    public void setBudget(final TraceBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Re-use traces from an on-disk cache, which outlives the server. Call
+     * before {@link #start()}.
+     */
+    public void setTraceCache(final TraceCache traceCache) {
+        this.traceCache = traceCache;
+    }
+
+    public void start() {
+        this.server.start();
+    }
+}
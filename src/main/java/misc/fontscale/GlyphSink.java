@@ -0,0 +1,10 @@
+package misc.fontscale;
+
+import java.io.IOException;
+
+/**
+ * Anywhere that glyphs can be written to, one at a time.
+ */
+public interface GlyphSink {
+    void write(FontGlyph glyph) throws IOException;
+}
@@ -0,0 +1,15 @@
+package misc.fontscale;
+
+import java.io.IOException;
+
+/**
+ * Anywhere that glyphs can be read from, one at a time.
+ */
+public interface GlyphSource {
+    /**
+     * @return The next glyph, or null if there are no more glyphs.
+     * @throws IOException
+     *             If the glyph can't be read.
+     */
+    FontGlyph next() throws IOException;
+}
@@ -0,0 +1,269 @@
+package misc.fontscale;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Re-uses the output of the last run for glyphs whose bitmap has not changed,
+ * so that editing a few glyphs in a big font doesn't mean tracing all of it
+ * again.
+ *
+ * A manifest file records the settings used, and for each codepoint, a hash of
+ * the source bitmap and of each output glyph. On the next run, glyphs whose
+ * source hash matches are copied from the previous output files instead of
+ * being traced, as long as the output still matches its hash. If the settings
+ * or {@link GlyphScaler#TRACE_VERSION} changed, everything is traced again.
+ *
+ * The new manifest is written as glyphs are output, and only replaces the old
+ * one when {@link #finish()} is called. If a run is interrupted, the old
+ * manifest is kept, and any glyphs whose output was lost no longer match their
+ * hash, so they are traced again next time.
+ */
+public class IncrementalBuild implements Closeable {
+    private static final String HEADER = "# fontscale manifest 1";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    static String hash(final RasterGlyph raster) {
+        final byte[] digest = TraceCache.key(raster).array();
+        final char[] ret = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            ret[i * 2] = IncrementalBuild.HEX_DIGITS[(digest[i] >> 4) & 0xF];
+            ret[(i * 2) + 1] = IncrementalBuild.HEX_DIGITS[digest[i] & 0xF];
+        }
+        return new String(ret);
+    }
+
+    /**
+     * Decode an output glyph, which is as high as the canvas, and as wide or a
+     * whole number of times as wide.
+     */
+    static RasterGlyph parseOutput(final String hex, final Geometry canvas) {
+        final int height = canvas.getHeight();
+        if ((height > 0) && (canvas.getWidth() > 0) && ((hex.length() % height) == 0)) {
+            final int rowDigits = hex.length() / height;
+            for (int width = canvas.getWidth(); (((width + 7) / 8) * 2) <= rowDigits; width += canvas.getWidth()) {
+                if ((((width + 7) / 8) * 2) == rowDigits) {
+                    return RasterGlyph.fromUnifontHex(hex, width, height);
+                }
+            }
+        }
+        return RasterGlyph.fromUnifontHex(hex, canvas.getWidth(), height);
+    }
+
+    private boolean finished = false;
+
+    private final Path path;
+
+    /**
+     * Output glyphs from the last run which still match their hash, for
+     * codepoints where every output does.
+     */
+    private final Map<Integer, FontGlyph[]> previous = new HashMap<>();
+
+    private int rebuilt = 0;
+
+    private int reused = 0;
+
+    /**
+     * Source hashes from the last run.
+     */
+    private final Map<Integer, String> sourceHashes = new HashMap<>();
+
+    private final Path tmp;
+
+    private final BufferedWriter writer;
+
+    /**
+     * Load the manifest and output from the last run, if there was one, and
+     * start a new manifest.
+     *
+     * @param path
+     *            Manifest file
+     * @param settings
+     *            Anything else which changes the output, such as the geometries
+     *            and budget. Nothing is re-used if these have changed.
+     * @param targets
+     *            Sizes being scaled to
+     * @param outputs
+     *            Output file for each target, in .hex format. These are read in
+     *            full before returning, so can be overwritten afterwards.
+     */
+    public IncrementalBuild(final Path path, final String settings, final List<GlyphScaler.Target> targets,
+            final List<Path> outputs) throws IOException {
+        this.path = path;
+        final String fullSettings = "settings " + GlyphScaler.TRACE_VERSION + " " + settings;
+        if (Files.exists(path)) {
+            final Map<Integer, String[]> outputHashes = this.loadManifest(path, fullSettings, targets.size());
+            this.loadOutputs(outputHashes, targets, outputs);
+        }
+        this.tmp = Paths.get(path + ".tmp");
+        this.writer = Files.newBufferedWriter(this.tmp, StandardCharsets.US_ASCII);
+        this.writer.write(IncrementalBuild.HEADER + "\n" + fullSettings + "\n");
+    }
+
+    /**
+     * Drop the new manifest, unless {@link #finish()} was called.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!this.finished) {
+            this.writer.close();
+            Files.deleteIfExists(this.tmp);
+        }
+    }
+
+    /**
+     * Replace the old manifest with the new one, once every glyph has been
+     * written.
+     */
+    public void finish() throws IOException {
+        this.writer.close();
+        Files.move(this.tmp, this.path, StandardCopyOption.REPLACE_EXISTING);
+        this.finished = true;
+    }
+
+    /**
+     * @return Glyphs traced again on this run, because they were new or changed.
+     */
+    public int getRebuilt() {
+        return this.rebuilt;
+    }
+
+    /**
+     * @return Glyphs copied from the last run.
+     */
+    public int getReused() {
+        return this.reused;
+    }
+
+    /**
+     * @return Output hashes for each codepoint, or nothing if the manifest is
+     *         from different settings.
+     */
+    private Map<Integer, String[]> loadManifest(final Path path, final String settings, final int targets)
+            throws IOException {
+        final Map<Integer, String[]> ret = new HashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+            if (!IncrementalBuild.HEADER.equals(in.readLine()) || !settings.equals(in.readLine())) {
+                return ret;
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String[] part = line.split(" ");
+                if (part.length != (targets + 2)) {
+                    throw new IOException("Bad manifest line: " + line);
+                }
+                final int codepoint = Integer.parseInt(part[0], 16);
+                this.sourceHashes.put(codepoint, part[1]);
+                final String[] outputHashes = new String[targets];
+                System.arraycopy(part, 2, outputHashes, 0, targets);
+                ret.put(codepoint, outputHashes);
+            }
+        } catch (final NumberFormatException e) {
+            throw new IOException("Bad manifest: " + e.getMessage(), e);
+        }
+        return ret;
+    }
+
+    private void loadOutputs(final Map<Integer, String[]> outputHashes, final List<GlyphScaler.Target> targets,
+            final List<Path> outputs) throws IOException {
+        final Map<Integer, FontGlyph[]> found = new HashMap<>();
+        for (int i = 0; i < targets.size(); i++) {
+            if (!Files.exists(outputs.get(i))) {
+                return;
+            }
+            final Geometry canvas = targets.get(i).getDstCanvas();
+            try (BufferedReader in = Files.newBufferedReader(outputs.get(i), StandardCharsets.US_ASCII)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    final int colon = line.indexOf(':');
+                    final int codepoint;
+                    try {
+                        codepoint = Integer.parseInt(line.substring(0, Math.max(colon, 0)), 16);
+                    } catch (final NumberFormatException e) {
+                        continue;
+                    }
+                    final String[] hashes = outputHashes.get(codepoint);
+                    if (hashes == null) {
+                        continue;
+                    }
+                    final RasterGlyph raster;
+                    try {
+                        raster = IncrementalBuild.parseOutput(line.substring(colon + 1), canvas);
+                    } catch (final IllegalArgumentException e) {
+                        // Edited by hand, trace it again
+                        continue;
+                    }
+                    if (IncrementalBuild.hash(raster).equals(hashes[i])) {
+                        found.computeIfAbsent(codepoint, k -> new FontGlyph[targets.size()])[i] = new FontGlyph(
+                                codepoint, raster);
+                    }
+                }
+            }
+        }
+        for (final Map.Entry<Integer, FontGlyph[]> entry : found.entrySet()) {
+            boolean complete = true;
+            for (final FontGlyph glyph : entry.getValue()) {
+                complete &= glyph != null;
+            }
+            if (complete) {
+                this.previous.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Add a glyph to the new manifest. Call in output order, once per glyph.
+     *
+     * @param source
+     *            Glyph from the source font
+     * @param outputs
+     *            Output glyph for each target
+     * @param complete
+     *            False if the trace ran out of budget, so the glyph is left out
+     *            of the manifest and traced again on the next run
+     */
+    public void record(final FontGlyph source, final FontGlyph[] outputs, final boolean complete)
+            throws IOException {
+        if (outputs == this.previous.get(source.getCodepoint())) {
+            this.reused++;
+        } else {
+            this.rebuilt++;
+        }
+        if (!complete) {
+            return;
+        }
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%04X ", source.getCodepoint())).append(IncrementalBuild.hash(source.getRaster()));
+        for (final FontGlyph output : outputs) {
+            sb.append(' ').append(IncrementalBuild.hash(output.getRaster()));
+        }
+        this.writer.write(sb.append('\n').toString());
+    }
+
+    /**
+     * Output from the last run, if the glyph has not changed since. Safe to call
+     * from any thread.
+     *
+     * @return Output glyph for each target, or null if the glyph must be traced
+     *         again.
+     */
+    public FontGlyph[] reuse(final FontGlyph source) {
+        final String sourceHash = this.sourceHashes.get(source.getCodepoint());
+        if ((sourceHash == null) || !sourceHash.equals(IncrementalBuild.hash(source.getRaster()))) {
+            return null;
+        }
+        return this.previous.get(source.getCodepoint());
+    }
+}
@@ -0,0 +1,20 @@
+package misc.fontscale;
+
+import java.io.IOException;
+
+/**
+ * Font which can look up any one glyph by codepoint, without reading the rest
+ * of the font.
+ */
+public interface RandomAccessFont {
+    /**
+     * Look up a glyph.
+     *
+     * @param codepoint
+     *            Codepoint to look up
+     * @return The glyph, or null if the font has no glyph for this codepoint.
+     * @throws IOException
+     *             If the glyph can't be read
+     */
+    RasterGlyph getGlyph(int codepoint) throws IOException;
+}
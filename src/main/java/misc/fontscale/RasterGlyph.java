@@ -1,40 +1,146 @@
 package misc.fontscale;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.Arrays;
 
-import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.binary.Hex;
-
 public class RasterGlyph implements Cloneable {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Both ASCII hex digits for each byte value, as one big-endian short.
+     */
+    private static final short[] HEX_PAIRS = new short[256];
+
+    /**
+     * Value of each ASCII hex digit, or -1 for anything else.
+     */
+    private static final byte[] NIBBLES = new byte[128];
+
+    static {
+        Arrays.fill(RasterGlyph.NIBBLES, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            RasterGlyph.NIBBLES[Character.forDigit(i, 16)] = (byte) i;
+            RasterGlyph.NIBBLES[Character.toUpperCase(Character.forDigit(i, 16))] = (byte) i;
+        }
+        for (int i = 0; i < 256; i++) {
+            RasterGlyph.HEX_PAIRS[i] = (short) ((RasterGlyph.HEX_DIGITS[i >>> 4] << 8) | RasterGlyph.HEX_DIGITS[i & 0xF]);
+        }
+    }
+
     public static RasterGlyph fromUnifontHex(final String hex) {
-        byte[] content;
-        try {
-            content = Hex.decodeHex(hex.toCharArray());
-        } catch (DecoderException e) {
-            // Re-throw unchecked
-            throw new RuntimeException(e);
+        final byte[] ascii = hex.getBytes(StandardCharsets.ISO_8859_1);
+        return RasterGlyph.fromUnifontHex(ByteBuffer.wrap(ascii), 0, ascii.length);
+    }
+
+    /**
+     * Decode a glyph of any size, as written by {@link #toUnifontHex()}, with each
+     * row padded out to a whole number of bytes.
+     *
+     * @param hex
+     *            Hex digits, without a codepoint
+     * @param width
+     *            Width of the glyph
+     * @param height
+     *            Height of the glyph
+     * @return Decoded glyph
+     */
+    public static RasterGlyph fromUnifontHex(final String hex, final int width, final int height) {
+        final int rowDigits = ((width + 7) / 8) * 2;
+        if (hex.length() != (rowDigits * height)) {
+            throw new IllegalArgumentException("Wrong number of characters for a " + width + "x" + height + " glyph");
+        }
+        final ByteBuffer buf = ByteBuffer.wrap(hex.getBytes(StandardCharsets.ISO_8859_1));
+        final RasterGlyph ret = new RasterGlyph(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < rowDigits; i++) {
+                final int value = RasterGlyph.nibble(buf, (y * rowDigits) + i);
+                for (int bit = 0; bit < 4; bit++) {
+                    if ((((value >> (3 - bit)) & 1) == 1) && (((i * 4) + bit) < width)) {
+                        ret.setPixel((i * 4) + bit, y, true);
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Decode a glyph in unifont hex format straight out of a buffer, such as a
+     * chunk of a .hex file, without copying the digits out first.
+     *
+     * @param buf
+     *            Buffer holding ASCII hex digits
+     * @param start
+     *            Index of the first digit
+     * @param end
+     *            Index after the last digit
+     * @return Decoded glyph, 16 pixels high
+     */
+    static RasterGlyph fromUnifontHex(final ByteBuffer buf, final int start, final int end) {
+        if (((end - start) & 1) != 0) {
+            throw new IllegalArgumentException("Odd number of characters.");
         }
         final int height = 16;
-        final int width = (content.length * 8) / height;
-        final boolean[][] data = new boolean[height][width];
-        for (int i = 0; i < (width * height); i++) {
-            final int x = i % width;
-            final int y = i / width;
-            final int curBit = i % 8;
-            final int curByte = i / 8;
-            data[y][x] = ((content[curByte] >> (7 - curBit)) & 1) == 1;
-        }
-        return new RasterGlyph(width, height, data);
+        final int width = (end - start) / 4;
+        final RasterGlyph ret = new RasterGlyph(width, height);
+        if ((width & 3) != 0) {
+            // Rows do not start on a digit boundary, so read bit-by-bit
+            for (int i = start; i < end; i++) {
+                RasterGlyph.nibble(buf, i);
+            }
+            for (int i = 0; i < (width * height); i++) {
+                if (((RasterGlyph.nibble(buf, start + (i / 4)) >> (3 - (i % 4))) & 1) == 1) {
+                    ret.setPixel(i % width, i / width, true);
+                }
+            }
+            return ret;
+        }
+        // Each digit is four pixels, so pack up to 16 digits into each word
+        final int rowDigits = width / 4;
+        int pos = start;
+        for (int y = 0; y < height; y++) {
+            for (int w = 0; w < ret.stride; w++) {
+                final int wordDigits = Math.min(16, rowDigits - (w * 16));
+                long word = 0;
+                for (int i = 0; i < wordDigits; i++) {
+                    word = (word << 4) | RasterGlyph.nibble(buf, pos++);
+                }
+                ret.data[(y * ret.stride) + w] = word << (64 - (wordDigits * 4));
+            }
+        }
+        return ret;
+    }
+
+    private static int nibble(final ByteBuffer buf, final int index) {
+        final byte c = buf.get(index);
+        final int value = c < 0 ? -1 : RasterGlyph.NIBBLES[c];
+        if (value < 0) {
+            throw new IllegalArgumentException("Illegal hexadecimal character " + (char) (c & 0xFF) + " at index " + index);
+        }
+        return value;
     }
 
-    private final boolean[][] data;
+    /**
+     * Pixels, packed one bit per pixel. Each row takes up "stride" words, with the
+     * left-most pixel in the most significant bit. Bits past the end of a row are
+     * always zero, so that whole words can be compared.
+     */
+    private final long[] data;
 
     private final int height;
 
+    /**
+     * Mask of bits which are part of the glyph, in the last word of each row.
+     */
+    private final long lastWordMask;
+
+    private final int stride;
+
     private final int width;
 
     /**
@@ -48,34 +154,39 @@ public class RasterGlyph implements Cloneable {
     public RasterGlyph(final int width, final int height) {
         this.width = width;
         this.height = height;
-        this.data = new boolean[height][width];
-        this.clear();
+        this.stride = (width + 63) >>> 6;
+        this.data = new long[this.stride * height];
+        this.lastWordMask = (width & 63) == 0 ? -1L : ~(-1L >>> (width & 63));
     }
 
     public RasterGlyph(final int width, final int height, final boolean[][] data) {
-        this.width = width;
-        this.height = height;
-        this.data = new boolean[height][width];
+        this(width, height);
         for (int y = 0; y < this.height; y++) {
             for (int x = 0; x < this.width; x++) {
-                this.data[y][x] = data[y][x];
+                if (data[y][x]) {
+                    this.data[this.index(x, y)] |= RasterGlyph.bit(x);
+                }
             }
         }
     }
 
     public RasterGlyph(RasterGlyph baseGlyph) {
-        this(baseGlyph.width, baseGlyph.height, baseGlyph.data);
+        this.width = baseGlyph.width;
+        this.height = baseGlyph.height;
+        this.stride = baseGlyph.stride;
+        this.lastWordMask = baseGlyph.lastWordMask;
+        this.data = baseGlyph.data.clone();
+    }
+
+    private static long bit(final int x) {
+        return Long.MIN_VALUE >>> (x & 63);
     }
 
     /**
      * Clear all pixels in raster
      */
     public void clear() {
-        for (int y = 0; y < this.height; y++) {
-            for (int x = 0; x < this.width; x++) {
-                this.data[y][x] = false;
-            }
-        }
+        Arrays.fill(this.data, 0L);
     }
 
     @Override
@@ -90,24 +201,56 @@ public class RasterGlyph implements Cloneable {
             return false;
         }
         final RasterGlyph other = (RasterGlyph) obj;
-        if (!Arrays.deepEquals(this.data, other.data)) {
+        if ((this.width != other.width) || (this.height != other.height)) {
+            return false;
+        }
+        if (!Arrays.equals(this.data, other.data)) {
             return false;
         }
         return true;
     }
 
+    /**
+     * Feed the size and content of this glyph to a message digest, for use as a
+     * cache key.
+     */
+    void digest(final MessageDigest md) {
+        final ByteBuffer buf = ByteBuffer.allocate(8 + (this.data.length * 8));
+        buf.putInt(this.width);
+        buf.putInt(this.height);
+        buf.asLongBuffer().put(this.data);
+        md.update(buf.array());
+    }
+
     public int getHeight() {
         return this.height;
     }
 
     public boolean getPixel(final int x, final int y) {
-        return this.data[y][x];
+        if ((x < 0) || (x >= this.width)) {
+            throw new IndexOutOfBoundsException("x out of range");
+        }
+        return (this.data[this.index(x, y)] & RasterGlyph.bit(x)) != 0;
     }
 
     public int getWidth() {
         return this.width;
     }
 
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = (prime * result) + this.width;
+        result = (prime * result) + this.height;
+        result = (prime * result) + Arrays.hashCode(this.data);
+        return result;
+    }
+
+    private int index(final int x, final int y) {
+        return (y * this.stride) + (x >>> 6);
+    }
+
     public void setPixel(final int x, final int y, final boolean value) {
         if ((x < 0) || (x >= this.width)) {
             throw new IndexOutOfBoundsException("x out of range");
@@ -115,7 +258,11 @@ public class RasterGlyph implements Cloneable {
         if ((y < 0) || (y >= this.height)) {
             throw new IndexOutOfBoundsException("y out of range");
         }
-        this.data[y][x] = value;
+        if (value) {
+            this.data[this.index(x, y)] |= RasterGlyph.bit(x);
+        } else {
+            this.data[this.index(x, y)] &= ~RasterGlyph.bit(x);
+        }
     }
 
     @Override
@@ -130,114 +277,211 @@ public class RasterGlyph implements Cloneable {
         return sb.toString();
     }
 
+    /**
+     * Encode as hex in the same format that unifont uses. Each row is padded out
+     * to a whole number of bytes.
+     *
+     * @return Hex string, without a codepoint
+     */
+    public String toUnifontHex() {
+        final int rowDigits = ((this.width + 7) / 8) * 2;
+        final char[] content = new char[rowDigits * this.height];
+        int pos = 0;
+        for (int y = 0; y < this.height; y++) {
+            for (int i = 0; i < rowDigits; i++) {
+                final int x = i * 4;
+                final long word = this.data[(y * this.stride) + (x >>> 6)];
+                content[pos++] = RasterGlyph.HEX_DIGITS[(int) (word >>> (60 - (x & 63))) & 0xF];
+            }
+        }
+        return new String(content);
+    }
+
+    /**
+     * Write one row as ASCII hex digits, padded out to a whole number of bytes,
+     * two digits at a time straight from the packed words.
+     *
+     * @param y
+     *            Row to write
+     * @param out
+     *            Buffer to write to, with at least 2 * ((width + 7) / 8) bytes
+     *            remaining.
+     */
+    void putHexRow(final int y, final ByteBuffer out) {
+        final int rowBytes = (this.width + 7) / 8;
+        for (int w = 0; w < this.stride; w++) {
+            long word = this.data[(y * this.stride) + w];
+            final int wordBytes = Math.min(8, rowBytes - (w * 8));
+            for (int i = 0; i < wordBytes; i++) {
+                out.putShort(RasterGlyph.HEX_PAIRS[(int) (word >>> 56)]);
+                word <<= 8;
+            }
+        }
+    }
+
+    /**
+     * Copy one row out as bytes, left-most pixel in the most significant bit.
+     */
+    private void packRow(final int y, final byte[] dst, final int offset) {
+        final int rowBytes = (this.width + 7) / 8;
+        for (int i = 0; i < rowBytes; i++) {
+            final int x = i * 8;
+            dst[offset + i] = (byte) (this.data[(y * this.stride) + (x >>> 6)] >>> (56 - (x & 63)));
+        }
+    }
+
     public VectorGlyph toVectorGlyph() {
         final VectorGlyph glyph = new VectorGlyph(this.width, this.height);
         for (int y = 0; y < this.height; y++) {
-            for (int x = 0; x < this.width; x++) {
-                if (data[y][x]) {
-                    glyph.addVertex(x, y);
+            for (int w = 0; w < this.stride; w++) {
+                long word = this.data[(y * this.stride) + w];
+                while (word != 0) {
+                    final int bit = Long.numberOfLeadingZeros(word);
+                    glyph.addVertex((w << 6) + bit, y);
+                    word &= ~(Long.MIN_VALUE >>> bit);
                 }
             }
         }
         return glyph;
     }
 
-    public void line(int x0, int x1, int y0, int y1) {
-        // https://en.wikipedia.org/wiki/Bresenham%27s_line_algorithm
-        if (Math.abs(y1 - y0) < Math.abs(x1 - x0)) {
+    /**
+     * Draw a line, covering exactly the same pixels as {@link Bresenham}. Both
+     * ends are checked once up front, since every pixel lies between them, then
+     * runs of pixels along a row are filled a word at a time.
+     */
+    public void line(final int x0, final int x1, final int y0, final int y1) {
+        if ((x0 < 0) || (x0 >= this.width) || (x1 < 0) || (x1 >= this.width)) {
+            throw new IndexOutOfBoundsException("x out of range");
+        }
+        if ((y0 < 0) || (y0 >= this.height) || (y1 < 0) || (y1 >= this.height)) {
+            throw new IndexOutOfBoundsException("y out of range");
+        }
+        if (y0 == y1) {
+            this.fillRow(y0, Math.min(x0, x1), Math.max(x0, x1));
+        } else if (x0 == x1) {
+            final long bit = RasterGlyph.bit(x0);
+            final int last = this.index(x0, Math.max(y0, y1));
+            for (int i = this.index(x0, Math.min(y0, y1)); i <= last; i += this.stride) {
+                this.data[i] |= bit;
+            }
+        } else if (Math.abs(y1 - y0) < Math.abs(x1 - x0)) {
             if (x0 > x1) {
-                lineLow(x1, y1, x0, y0);
+                this.lineLow(x1, y1, x0, y0);
             } else {
-                lineLow(x0, y0, x1, y1);
+                this.lineLow(x0, y0, x1, y1);
             }
         } else {
             if (y0 > y1) {
-                lineHigh(x1, y1, x0, y0);
+                this.lineHigh(x1, y1, x0, y0);
             } else {
-                lineHigh(x0, y0, x1, y1);
+                this.lineHigh(x0, y0, x1, y1);
             }
         }
     }
 
-    private void lineHigh(int x0, int y0, int x1, int y1) {
+    /**
+     * Set pixels x0 to x1 inclusive on one row.
+     */
+    private void fillRow(final int y, final int x0, final int x1) {
+        final int first = this.index(x0, y);
+        final int last = this.index(x1, y);
+        final long head = -1L >>> (x0 & 63);
+        final long tail = ~(Long.MAX_VALUE >>> (x1 & 63));
+        if (first == last) {
+            this.data[first] |= head & tail;
+            return;
+        }
+        this.data[first] |= head;
+        for (int i = first + 1; i < last; i++) {
+            this.data[i] = -1L;
+        }
+        this.data[last] |= tail;
+    }
+
+    /**
+     * Steep line, with one pixel per row. Same steps as
+     * {@link Bresenham#line(int, int, int, int, Bresenham.PixelVisitor)}.
+     */
+    private void lineHigh(final int x0, final int y0, final int x1, final int y1) {
         int dx = x1 - x0;
-        int dy = y1 - y0;
+        final int dy = y1 - y0;
         int xi = 1;
         if (dx < 0) {
             xi = -1;
             dx = -dx;
         }
-        int D = 2 * dx - dy;
+        int D = (2 * dx) - dy;
         int x = x0;
         for (int y = y0; y <= y1; y++) {
-            this.setPixel(x, y, true);
+            this.data[this.index(x, y)] |= RasterGlyph.bit(x);
             if (D > 0) {
                 x = x + xi;
-                D = D - 2 * dy;
+                D = D - (2 * dy);
             }
-            D = D + 2 * dx;
+            D = D + (2 * dx);
         }
     }
 
-    private void lineLow(int x1, int y1, int x2, int y2) {
-        int dx = x2 - x1;
-        int dy = y2 - y1;
+    /**
+     * Shallow line, drawn as one run per row.
+     */
+    private void lineLow(final int x0, final int y0, final int x1, final int y1) {
+        final int dx = x1 - x0;
+        int dy = y1 - y0;
         int yi = 1;
         if (dy < 0) {
             yi = -1;
             dy = -dy;
         }
-        int D = 2 * dy - dx;
-        int y = y1;
-        for (int x = x1; x <= x2; x++) {
-            this.setPixel(x, y, true);
+        int D = (2 * dy) - dx;
+        int y = y0;
+        int runStart = x0;
+        for (int x = x0; x <= x1; x++) {
             if (D > 0) {
+                // Last pixel on this row
+                this.fillRow(y, runStart, x);
+                runStart = x + 1;
                 y = y + yi;
-                D = D - 2 * dx;
+                D = D - (2 * dx);
             }
-            D = D + 2 * dy;
+            D = D + (2 * dy);
+        }
+        if (runStart <= x1) {
+            this.fillRow(y, runStart, x1);
         }
     }
-    // if (x2 == x1) {
-    // return lineVertical(x1, y1, y2);
-    // }
-    // if (x2 < x1) {
-    // // Reverse
-    // return line(x2, x1, y2, y1);
-    // }
-    // if (y2 == y1) {
-    // // Shortcut for straight horizontal
-    //// for (int x = x1; x <= x2; x++) {
-    //// this.setPixel(x, y1, true);
-    //// }
-    // return;
-    // }
 
     public void invert() {
+        if (this.stride == 0) {
+            // Zero width, nothing to invert
+            return;
+        }
         for (int y = 0; y < this.height; y++) {
-            for (int x = 0; x < this.width; x++) {
-                data[y][x] = !data[y][x];
+            final int rowEnd = (y + 1) * this.stride;
+            for (int i = y * this.stride; i < rowEnd - 1; i++) {
+                this.data[i] = ~this.data[i];
             }
+            this.data[rowEnd - 1] ^= this.lastWordMask;
         }
     }
 
     public void writeAsPbm(String dstFile) throws IOException {
-        // Construct file
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(("P4\n" + width + " " + height + "\n").getBytes());
-        for(int y = 0; y < height; y++) {
-            byte[] row = new byte[(width + 7) / 8];
-            for(int x = 0; x < width; x++) {
-                int byteNum = x / 8;
-                int bitNum = x % 8;
-                int val = this.getPixel(x, y) ? 1 : 0;
-                row[byteNum] |= (val << (7 - bitNum));
-            }
-            baos.write(row);
-        }
-        // Write output
         Path path = Paths.get(dstFile);
-        Files.write(path, baos.toByteArray());
+        Files.write(path, toPbm());
+    }
+
+    /**
+     * @return Glyph as a binary (P4) PBM image.
+     */
+    public byte[] toPbm() {
+        final byte[] header = ("P4\n" + this.width + " " + this.height + "\n").getBytes(StandardCharsets.US_ASCII);
+        final int rowBytes = (this.width + 7) / 8;
+        final byte[] ret = Arrays.copyOf(header, header.length + (rowBytes * this.height));
+        for (int y = 0; y < this.height; y++) {
+            this.packRow(y, ret, header.length + (y * rowBytes));
+        }
+        return ret;
     }
 
     // https://en.wikipedia.org/wiki/Bresenham%27s_line_algorithm
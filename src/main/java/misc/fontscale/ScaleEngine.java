@@ -0,0 +1,296 @@
+package misc.fontscale;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import misc.fontscale.TraceMetrics.GlyphMetrics;
+
+/**
+ * Runs a per-glyph task over every glyph from a source, spread across several
+ * worker threads.
+ *
+ * Glyphs are traced independently, so results are identical to running the
+ * task on one thread. Results are handed to the output in the same order that
+ * the glyphs were read, and at most queueSize glyphs are in flight at once.
+ *
+ * Glyphs which finish before an earlier, slower one are held back until it is
+ * written, while the workers carry on with the glyphs after them. Only once
+ * {@link #REORDER_FACTOR} times queueSize glyphs are waiting on one slow glyph
+ * does reading stop until it finishes.
+ */
+public class ScaleEngine {
+    /**
+     * Result of a task, with the position of its glyph in the input.
+     */
+    private static class Numbered<T> {
+        final int index;
+
+        final T result;
+
+        Numbered(final int index, final T result) {
+            this.index = index;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Output glyphs for one source glyph, on their way to being written.
+     */
+    private static class Scaled {
+        final GlyphMetrics metrics;
+
+        final FontGlyph[] outputs;
+
+        final FontGlyph source;
+
+        Scaled(final FontGlyph source, final GlyphMetrics metrics, final FontGlyph[] outputs) {
+            this.source = source;
+            this.metrics = metrics;
+            this.outputs = outputs;
+        }
+    }
+
+    /**
+     * Most glyphs which are read but not yet written, for each glyph allowed in
+     * flight. Results are small next to the time one slow glyph can take, so
+     * this is generous.
+     */
+    public static final int REORDER_FACTOR = 16;
+
+    /**
+     * Receives results in input order.
+     */
+    public interface Output<T> {
+        void write(T result) throws IOException;
+    }
+
+    private final int queueSize;
+
+    private final int workers;
+
+    /**
+     * Engine which uses one worker per available processor.
+     */
+    public ScaleEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ScaleEngine(final int workers) {
+        this(workers, workers * 4);
+    }
+
+    /**
+     * @param workers
+     *            Number of worker threads. 1 runs everything on the calling
+     *            thread.
+     * @param queueSize
+     *            Maximum number of glyphs being traced, or waiting for a worker.
+     *            Up to {@link #REORDER_FACTOR} times as many can be read but not
+     *            yet written, while they wait on a slower glyph before them.
+     */
+    public ScaleEngine(final int workers, final int queueSize) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Need at least one worker");
+        }
+        if (queueSize < workers) {
+            throw new IllegalArgumentException("Queue must have room for every worker");
+        }
+        this.workers = workers;
+        this.queueSize = queueSize;
+    }
+
+    public int getQueueSize() {
+        return this.queueSize;
+    }
+
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    /**
+     * Scale every glyph from a source, tracing each glyph once and writing it to
+     * one output per target size.
+     *
+     * @param outs
+     *            One output for each of the scaler's targets, in the same order.
+     * @return Number of glyphs scaled
+     */
+    public int run(final GlyphSource in, final GlyphScaler scaler, final GlyphSink... outs) throws IOException {
+        if (outs.length != scaler.getTargets().size()) {
+            throw new IllegalArgumentException("Need one output per target size");
+        }
+        return this.run(in, glyph -> ScaleEngine.scaleAll(scaler, glyph, TraceListener.NONE), result -> {
+            for (int i = 0; i < outs.length; i++) {
+                outs[i].write(result[i]);
+            }
+        });
+    }
+
+    /**
+     * Scale every glyph from a source, as above, recording how long each glyph
+     * spent in each stage.
+     *
+     * @param metrics
+     *            Receives the timings and counts for each glyph
+     * @param outs
+     *            One output for each of the scaler's targets, in the same order.
+     * @return Number of glyphs scaled
+     */
+    public int run(final GlyphSource in, final GlyphScaler scaler, final TraceMetrics metrics,
+            final GlyphSink... outs) throws IOException {
+        return this.run(in, scaler, metrics, null, outs);
+    }
+
+    /**
+     * Scale every glyph from a source, as above, copying glyphs which have not
+     * changed since the last run instead of tracing them again.
+     *
+     * @param metrics
+     *            Receives the timings and counts for each glyph, or null
+     * @param build
+     *            Output of the last run, which also records this run, or null to
+     *            trace every glyph
+     * @param outs
+     *            One output for each of the scaler's targets, in the same order.
+     * @return Number of glyphs scaled or copied
+     */
+    public int run(final GlyphSource in, final GlyphScaler scaler, final TraceMetrics metrics,
+            final IncrementalBuild build, final GlyphSink... outs) throws IOException {
+        if (outs.length != scaler.getTargets().size()) {
+            throw new IllegalArgumentException("Need one output per target size");
+        }
+        // Reading and writing both happen on this thread, in the same order
+        final Deque<Long> parseNanos = new ArrayDeque<>();
+        final GlyphSource timedIn = () -> {
+            final long start = System.nanoTime();
+            final FontGlyph glyph = in.next();
+            parseNanos.addLast(System.nanoTime() - start);
+            return glyph;
+        };
+        return this.run(timedIn, glyph -> {
+            final GlyphMetrics glyphMetrics = new GlyphMetrics(glyph.getCodepoint());
+            final FontGlyph[] reused = build == null ? null : build.reuse(glyph);
+            return new Scaled(glyph, glyphMetrics,
+                    reused != null ? reused : ScaleEngine.scaleAll(scaler, glyph, glyphMetrics));
+        }, result -> {
+            result.metrics.stage(TraceListener.Stage.PARSE, parseNanos.removeFirst());
+            final long start = System.nanoTime();
+            for (int i = 0; i < outs.length; i++) {
+                outs[i].write(result.outputs[i]);
+            }
+            if (build != null) {
+                build.record(result.source, result.outputs,
+                        result.metrics.getCount(TraceListener.Counter.BUDGET_EXCEEDED) == 0);
+            }
+            result.metrics.stage(TraceListener.Stage.WRITE, System.nanoTime() - start);
+            if (metrics != null) {
+                metrics.finish(result.metrics);
+            }
+        });
+    }
+
+    private static FontGlyph[] scaleAll(final GlyphScaler scaler, final FontGlyph glyph,
+            final TraceListener listener) {
+        final RasterGlyph[] scaled = scaler.scaleAll(glyph.getRaster(), listener);
+        final FontGlyph[] ret = new FontGlyph[scaled.length];
+        for (int i = 0; i < scaled.length; i++) {
+            ret[i] = new FontGlyph(glyph.getCodepoint(), scaled[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * Apply a task to every glyph from a source.
+     *
+     * @return Number of glyphs processed
+     */
+    public <T> int run(final GlyphSource in, final Function<FontGlyph, T> task, final Output<T> out)
+            throws IOException {
+        int count = 0;
+        if (this.workers == 1) {
+            FontGlyph glyph;
+            while ((glyph = in.next()) != null) {
+                out.write(task.apply(glyph));
+                count++;
+            }
+            return count;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(this.workers);
+        try {
+            final CompletionService<Numbered<T>> finished = new ExecutorCompletionService<>(executor);
+            // Finished results which are waiting on an earlier glyph, by index
+            final Map<Integer, T> reorder = new HashMap<>();
+            final int maxUnwritten = this.queueSize * ScaleEngine.REORDER_FACTOR;
+            int read = 0;
+            int running = 0;
+            FontGlyph glyph;
+            while ((glyph = in.next()) != null) {
+                while ((running == this.queueSize) || ((read - count) == maxUnwritten)) {
+                    // The next glyph to write is always still running here
+                    final Numbered<T> result = ScaleEngine.await(finished.take());
+                    running--;
+                    reorder.put(result.index, result.result);
+                    count = ScaleEngine.writeReady(reorder, count, out);
+                }
+                final FontGlyph next = glyph;
+                final int index = read++;
+                finished.submit(() -> new Numbered<>(index, task.apply(next)));
+                running++;
+            }
+            while (running > 0) {
+                final Numbered<T> result = ScaleEngine.await(finished.take());
+                running--;
+                reorder.put(result.index, result.result);
+                count = ScaleEngine.writeReady(reorder, count, out);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for glyph", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return count;
+    }
+
+    /**
+     * Write results which no longer wait on an earlier glyph.
+     *
+     * @return Index of the next result to write
+     */
+    private static <T> int writeReady(final Map<Integer, T> reorder, int next, final Output<T> out)
+            throws IOException {
+        while (reorder.containsKey(next)) {
+            out.write(reorder.remove(next));
+            next++;
+        }
+        return next;
+    }
+
+    private static <T> T await(final Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for glyph", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
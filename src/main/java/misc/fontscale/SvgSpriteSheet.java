@@ -0,0 +1,103 @@
+package misc.fontscale;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Draws a whole font into one SVG file, laid out on a grid, as glyphs are
+ * traced. Each glyph is a group with the codepoint as its id, eg. "U+0041".
+ *
+ * The number of glyphs is not known until the end, so the height of the
+ * document is written as a placeholder and filled in on close().
+ */
+public class SvgSpriteSheet implements Closeable {
+    private static final int HEIGHT_DIGITS = 10;
+
+    private final int cellHeight;
+
+    private final int cellWidth;
+
+    private int column = 0;
+
+    private final int columns;
+
+    private final Path path;
+
+    private int rows = 0;
+
+    private final SvgWriter svg;
+
+    /**
+     * @param path
+     *            File to write
+     * @param columns
+     *            Number of cells in each row
+     * @param cellWidth
+     *            Width of each cell, in pixels. Wider glyphs take up several cells.
+     * @param cellHeight
+     *            Height of each cell, in pixels
+     * @throws IOException
+     *             If the file can't be written
+     */
+    public SvgSpriteSheet(final Path path, final int columns, final int cellWidth, final int cellHeight)
+            throws IOException {
+        if ((columns < 1) || (cellWidth < 1) || (cellHeight < 1)) {
+            throw new IllegalArgumentException("Grid must have at least one cell");
+        }
+        this.path = path;
+        this.columns = columns;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.svg = new SvgWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8));
+        this.svg.startDocument(columns * cellWidth * VectorGlyph.SVG_SCALE, 0, SvgSpriteSheet.HEIGHT_DIGITS);
+    }
+
+    /**
+     * Draw the next glyph.
+     *
+     * @param codepoint
+     *            Codepoint, used to label the glyph
+     * @param glyph
+     *            Traced glyph
+     * @throws IOException
+     *             If the file can't be written
+     */
+    public void add(final int codepoint, final VectorGlyph glyph) throws IOException {
+        final int span = Math.min(this.columns, Math.max(1, (glyph.width + this.cellWidth - 1) / this.cellWidth));
+        if ((this.rows == 0) || ((this.column + span) > this.columns)) {
+            this.rows++;
+            this.column = 0;
+        }
+        this.svg.startGroup(String.format("U+%04X", codepoint), this.column * this.cellWidth * VectorGlyph.SVG_SCALE,
+                (this.rows - 1) * this.cellHeight * VectorGlyph.SVG_SCALE);
+        glyph.writeSvg(this.svg);
+        this.svg.endGroup();
+        this.column += span;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.svg.endDocument();
+        this.svg.close();
+        // Fill in the height, now that the number of rows is known
+        final String height = String.format("%0" + SvgSpriteSheet.HEIGHT_DIGITS + "d",
+                this.rows * this.cellHeight * VectorGlyph.SVG_SCALE);
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(256);
+            channel.read(header, 0);
+            final String text = new String(header.array(), 0, header.position(), StandardCharsets.US_ASCII);
+            final int marker = text.indexOf("height=\"");
+            if (marker < 0) {
+                throw new IOException("No height to fill in at the start of " + this.path);
+            }
+            final int offset = marker + "height=\"".length();
+            channel.write(ByteBuffer.wrap(height.getBytes(StandardCharsets.US_ASCII)), offset);
+        }
+    }
+}
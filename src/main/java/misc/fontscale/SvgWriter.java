@@ -0,0 +1,150 @@
+package misc.fontscale;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams SVG elements straight to a writer, without building up the document
+ * in memory first.
+ *
+ * Numbers are formatted into a buffer which is re-used for every element, so
+ * that writing a large document does not create garbage for each attribute.
+ */
+public class SvgWriter implements Closeable {
+    private final char[] digits = new char[11];
+
+    private final Writer out;
+
+    public SvgWriter(final Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Draw a circle.
+     */
+    public void circle(final int cx, final int cy, final int r, final String color) throws IOException {
+        this.out.write("    <circle cx=\"");
+        this.number(cx);
+        this.out.write("\" cy=\"");
+        this.number(cy);
+        this.out.write("\" r=\"");
+        this.number(r);
+        this.out.write("\" stroke=\"");
+        this.out.write(color);
+        this.out.write("\" fill=\"");
+        this.out.write(color);
+        this.out.write("\" stroke-width=\"1\"/>\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+
+    /**
+     * Finish the document.
+     */
+    public void endDocument() throws IOException {
+        this.out.write("</svg>\n");
+        this.out.flush();
+    }
+
+    /**
+     * Finish a group started with startGroup().
+     */
+    public void endGroup() throws IOException {
+        this.out.write("  </g>\n");
+    }
+
+    /**
+     * Draw a line.
+     */
+    public void line(final int x1, final int y1, final int x2, final int y2, final String color) throws IOException {
+        this.out.write("    <line x1=\"");
+        this.number(x1);
+        this.out.write("\" x2=\"");
+        this.number(x2);
+        this.out.write("\" y1=\"");
+        this.number(y1);
+        this.out.write("\" y2=\"");
+        this.number(y2);
+        this.out.write("\" stroke=\"");
+        this.out.write(color);
+        this.out.write("\" stroke-width=\"1\"/>\n");
+    }
+
+    private void number(final int value) throws IOException {
+        this.number(value, 1);
+    }
+
+    private void number(int value, final int minDigits) throws IOException {
+        if (value == Integer.MIN_VALUE) {
+            this.out.write(Integer.toString(value));
+            return;
+        }
+        int pos = this.digits.length;
+        final boolean negative = value < 0;
+        if (negative) {
+            value = -value;
+        }
+        do {
+            this.digits[--pos] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while ((value != 0) || ((this.digits.length - pos) < minDigits));
+        if (negative) {
+            this.digits[--pos] = '-';
+        }
+        this.out.write(this.digits, pos, this.digits.length - pos);
+    }
+
+    /**
+     * Draw a filled rectangle with no outline.
+     */
+    public void rect(final int x, final int y, final int width, final int height, final String fill)
+            throws IOException {
+        this.out.write("    <rect x=\"");
+        this.number(x);
+        this.out.write("\" y=\"");
+        this.number(y);
+        this.out.write("\" width=\"");
+        this.number(width);
+        this.out.write("\" height=\"");
+        this.number(height);
+        this.out.write("\" stroke=\"none\" fill=\"");
+        this.out.write(fill);
+        this.out.write("\" stroke-width=\"0\"/>\n");
+    }
+
+    /**
+     * Start the document. Must be called before anything is drawn.
+     */
+    public void startDocument(final int width, final int height) throws IOException {
+        this.startDocument(width, height, 1);
+    }
+
+    /**
+     * Start the document, with the height zero-padded to a fixed number of
+     * digits so that it can be overwritten in place later.
+     */
+    void startDocument(final int width, final int height, final int heightDigits) throws IOException {
+        this.out.write("<?xml version=\"1.0\" standalone=\"no\"?>\n<svg width=\"");
+        this.number(width);
+        this.out.write("\" height=\"");
+        this.number(height, heightDigits);
+        this.out.write("\" version=\"1.1\" xmlns=\"http://www.w3.org/2000/svg\">\n");
+    }
+
+    /**
+     * Start a group of elements, drawn offset by the given amount.
+     */
+    public void startGroup(final String id, final int x, final int y) throws IOException {
+        this.out.write("  <g id=\"");
+        this.out.write(id);
+        this.out.write("\" transform=\"translate(");
+        this.number(x);
+        this.out.write(' ');
+        this.number(y);
+        this.out.write(")\">\n");
+    }
+}
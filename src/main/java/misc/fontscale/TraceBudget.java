@@ -0,0 +1,53 @@
+package misc.fontscale;
+
+/**
+ * Limit on how much work may go into simplifying one glyph.
+ *
+ * A few dense glyphs can take minutes to simplify. When the budget runs out,
+ * simplification stops, leaving a trace which still draws the original glyph,
+ * but with more edges than it would otherwise have.
+ */
+public class TraceBudget {
+    /**
+     * No limit, so every glyph is simplified as far as it will go.
+     */
+    public static final TraceBudget UNLIMITED = new TraceBudget(0, 0);
+
+    private final int maxIterations;
+
+    private final long maxNanos;
+
+    /**
+     * @param maxMillis
+     *            Time allowed per glyph, in milliseconds, or 0 for no limit.
+     * @param maxIterations
+     *            Passes allowed over each connected stroke of the glyph, or 0 for
+     *            no limit.
+     */
+    public TraceBudget(final long maxMillis, final int maxIterations) {
+        if ((maxMillis < 0) || (maxIterations < 0)) {
+            throw new IllegalArgumentException("Budget can't be negative");
+        }
+        this.maxNanos = maxMillis * 1000000L;
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @return Passes allowed over each connected stroke of the glyph, or 0 for
+     *         no limit.
+     */
+    public int getMaxIterations() {
+        return this.maxIterations;
+    }
+
+    /**
+     * @return Time allowed per glyph, in nanoseconds, or 0 for no limit.
+     */
+    public long getMaxNanos() {
+        return this.maxNanos;
+    }
+
+    public boolean isUnlimited() {
+        return (this.maxNanos == 0) && (this.maxIterations == 0);
+    }
+}
@@ -0,0 +1,190 @@
+package misc.fontscale;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * On-disk cache of traced glyphs, keyed by a hash of the source bitmap, so that
+ * a font only needs to be traced once no matter how many sizes it is scaled to.
+ *
+ * The cache is a single file: a header, then one record per glyph, appended as
+ * glyphs are traced. If the header does not match the current file format or
+ * {@link GlyphScaler#TRACE_VERSION}, the old contents are thrown away.
+ */
+public class TraceCache implements Closeable {
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int KEY_LENGTH = 20;
+
+    private static final int MAGIC = 0x46535443; // "FSTC"
+
+    private static final int MAX_RECORD_LENGTH = 1 << 24;
+
+    static ByteBuffer key(final RasterGlyph raster) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-1");
+            raster.digest(md);
+            return ByteBuffer.wrap(md.digest());
+        } catch (final NoSuchAlgorithmException e) {
+            // Every JVM has SHA-1
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final Map<ByteBuffer, byte[]> entries = new HashMap<>();
+
+    private int hits = 0;
+
+    private int misses = 0;
+
+    private final DataOutputStream out;
+
+    /**
+     * Open a cache file, creating it if it does not exist.
+     *
+     * @param path
+     *            Cache file
+     * @throws IOException
+     *             If the file can't be read or written
+     */
+    public TraceCache(final Path path) throws IOException {
+        long validLength = 0;
+        if (Files.exists(path)) {
+            validLength = this.load(path);
+        }
+        final RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+        // Drop anything after the last complete record, or the whole file if it is stale
+        file.setLength(validLength);
+        file.seek(validLength);
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(file.getChannel())));
+        if (validLength == 0) {
+            this.out.writeInt(TraceCache.MAGIC);
+            this.out.writeInt(TraceCache.FORMAT_VERSION);
+            this.out.writeInt(GlyphScaler.TRACE_VERSION);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.out.close();
+    }
+
+    /**
+     * Look up a traced glyph.
+     *
+     * @param raster
+     *            Source bitmap
+     * @return Traced glyph, or null if this bitmap has not been traced before.
+     */
+    public VectorGlyph get(final RasterGlyph raster) {
+        final ByteBuffer key = TraceCache.key(raster);
+        final byte[] value;
+        synchronized (this) {
+            value = this.entries.get(key);
+            if (value == null) {
+                this.misses++;
+                return null;
+            }
+            this.hits++;
+        }
+        try {
+            return VectorGlyph.read(new DataInputStream(new ByteArrayInputStream(value)));
+        } catch (final IOException e) {
+            // Record was checked when it was loaded
+            throw new RuntimeException(e);
+        }
+    }
+
+    public synchronized int getHits() {
+        return this.hits;
+    }
+
+    public synchronized int getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Read all records from an existing file.
+     *
+     * @return Length of the file up to the end of the last complete record, or 0
+     *         if the file is from a different version.
+     */
+    private long load(final Path path) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            final DataInputStream data = new DataInputStream(in);
+            long validLength = 0;
+            try {
+                if ((data.readInt() != TraceCache.MAGIC) || (data.readInt() != TraceCache.FORMAT_VERSION)
+                        || (data.readInt() != GlyphScaler.TRACE_VERSION)) {
+                    return 0;
+                }
+                validLength = 12;
+                while (true) {
+                    final byte[] key = new byte[TraceCache.KEY_LENGTH];
+                    data.readFully(key);
+                    final int length = data.readInt();
+                    if ((length < 0) || (length > TraceCache.MAX_RECORD_LENGTH)) {
+                        break;
+                    }
+                    final byte[] value = new byte[length];
+                    data.readFully(value);
+                    // Check that it can be read back
+                    VectorGlyph.read(new DataInputStream(new ByteArrayInputStream(value)));
+                    this.entries.put(ByteBuffer.wrap(key), value);
+                    validLength += TraceCache.KEY_LENGTH + 4 + value.length;
+                }
+            } catch (final EOFException e) {
+                // End of file, possibly part-way through a record from an interrupted run.
+            } catch (final IOException e) {
+                // Corrupt record, keep what came before it.
+            }
+            return validLength;
+        }
+    }
+
+    /**
+     * Add a traced glyph to the cache.
+     *
+     * @param raster
+     *            Source bitmap
+     * @param traced
+     *            Result of tracing the bitmap
+     * @throws IOException
+     *             If the cache file can't be written
+     */
+    public void put(final RasterGlyph raster, final VectorGlyph traced) throws IOException {
+        final ByteBuffer key = TraceCache.key(raster);
+        final ByteArrayOutputStream value = new ByteArrayOutputStream();
+        traced.write(new DataOutputStream(value));
+        synchronized (this) {
+            if (this.entries.containsKey(key)) {
+                return;
+            }
+            this.entries.put(key, value.toByteArray());
+            this.out.write(key.array());
+            this.out.writeInt(value.size());
+            value.writeTo(this.out);
+        }
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+}
@@ -0,0 +1,51 @@
+package misc.fontscale;
+
+/**
+ * Receives timings and counts from the stages of scaling one glyph, to find out
+ * where the time goes.
+ */
+public interface TraceListener {
+    /**
+     * Things counted while tracing.
+     */
+    enum Counter {
+        /** Candidate paths found, over every pass of combineEdges. */
+        CANDIDATES_ENUMERATED,
+        /** Candidate paths which needed sorting before they were tried. */
+        CANDIDATES_SORTED,
+        /** Candidate paths tried and rejected because they would change the glyph. */
+        CANDIDATES_REJECTED,
+        /** Passes where candidate enumeration stopped at the path limit. */
+        CANDIDATE_LIMIT_HIT,
+        /** Merges which changed the glyph, and fell back to collapseFully. */
+        COLLAPSE_FULLY,
+        /** Passes of combineEdges. */
+        COMBINE_ITERATIONS,
+        /** Glyphs which ran out of budget before they were fully simplified. */
+        BUDGET_EXCEEDED;
+    }
+
+    /**
+     * Stages of scaling a glyph.
+     */
+    enum Stage {
+        PARSE, JOIN, DISCONNECT, COMBINE_EDGES, COPY, RASTERIZE, WRITE;
+    }
+
+    /**
+     * Listener which ignores everything.
+     */
+    TraceListener NONE = new TraceListener() {
+        @Override
+        public void count(final Counter counter, final long n) {
+        }
+
+        @Override
+        public void stage(final Stage stage, final long nanos) {
+        }
+    };
+
+    void count(Counter counter, long n);
+
+    void stage(Stage stage, long nanos);
+}
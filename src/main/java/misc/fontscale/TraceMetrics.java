@@ -0,0 +1,250 @@
+package misc.fontscale;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import misc.fontscale.TraceListener.Counter;
+import misc.fontscale.TraceListener.Stage;
+
+/**
+ * Totals of time spent in each stage, and of each counter, across a whole run.
+ * Also keeps the slowest glyphs, since a few pathological glyphs usually
+ * account for most of the time.
+ *
+ * Each glyph is recorded separately by a {@link GlyphMetrics}, then added to
+ * the totals with {@link #finish(GlyphMetrics)}, which is safe to call from any
+ * thread.
+ */
+public class TraceMetrics {
+    /**
+     * Timings and counts for one glyph.
+     */
+    public static class GlyphMetrics implements TraceListener {
+        private final int codepoint;
+
+        private final long[] counters = new long[Counter.values().length];
+
+        private final long[] nanos = new long[Stage.values().length];
+
+        public GlyphMetrics(final int codepoint) {
+            this.codepoint = codepoint;
+        }
+
+        @Override
+        public void count(final Counter counter, final long n) {
+            this.counters[counter.ordinal()] += n;
+        }
+
+        public int getCodepoint() {
+            return this.codepoint;
+        }
+
+        public long getCount(final Counter counter) {
+            return this.counters[counter.ordinal()];
+        }
+
+        public long getNanos(final Stage stage) {
+            return this.nanos[stage.ordinal()];
+        }
+
+        public long getTotalNanos() {
+            long ret = 0;
+            for (final long n : this.nanos) {
+                ret += n;
+            }
+            return ret;
+        }
+
+        @Override
+        public void stage(final Stage stage, final long nanos) {
+            this.nanos[stage.ordinal()] += nanos;
+        }
+    }
+
+    private static final Comparator<GlyphMetrics> BY_TOTAL = Comparator.comparingLong(GlyphMetrics::getTotalNanos);
+
+    private static String codepoint(final int codepoint) {
+        return String.format("U+%04X", codepoint);
+    }
+
+    private static String millis(final long nanos) {
+        // JSON needs a decimal point, whatever the locale
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String name(final Enum<?> value) {
+        // eg. COMBINE_EDGES -> combineEdges
+        final StringBuilder sb = new StringBuilder();
+        boolean upper = false;
+        for (final char c : value.name().toCharArray()) {
+            if (c == '_') {
+                upper = true;
+            } else {
+                sb.append(upper ? c : Character.toLowerCase(c));
+                upper = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    private final long[] counters = new long[Counter.values().length];
+
+    private int glyphs = 0;
+
+    private final List<Integer> overBudget = new ArrayList<>();
+
+    private final int[] maxCodepoint = new int[Stage.values().length];
+
+    private final long[] maxNanos = new long[Stage.values().length];
+
+    private final long[] nanos = new long[Stage.values().length];
+
+    private final PriorityQueue<GlyphMetrics> slowest = new PriorityQueue<>(TraceMetrics.BY_TOTAL);
+
+    private final int slowestSize;
+
+    /**
+     * @param slowestSize
+     *            Number of slowest glyphs to keep.
+     */
+    public TraceMetrics(final int slowestSize) {
+        this.slowestSize = slowestSize;
+    }
+
+    /**
+     * Add one glyph to the totals. The glyph's metrics must not be changed after
+     * this.
+     */
+    public synchronized void finish(final GlyphMetrics glyph) {
+        this.glyphs++;
+        for (final Counter counter : Counter.values()) {
+            this.counters[counter.ordinal()] += glyph.getCount(counter);
+        }
+        for (final Stage stage : Stage.values()) {
+            final long n = glyph.getNanos(stage);
+            this.nanos[stage.ordinal()] += n;
+            if (n > this.maxNanos[stage.ordinal()]) {
+                this.maxNanos[stage.ordinal()] = n;
+                this.maxCodepoint[stage.ordinal()] = glyph.getCodepoint();
+            }
+        }
+        if (glyph.getCount(Counter.BUDGET_EXCEEDED) > 0) {
+            this.overBudget.add(glyph.getCodepoint());
+        }
+        if (this.slowestSize > 0) {
+            this.slowest.add(glyph);
+            if (this.slowest.size() > this.slowestSize) {
+                this.slowest.poll();
+            }
+        }
+    }
+
+    public synchronized long getCount(final Counter counter) {
+        return this.counters[counter.ordinal()];
+    }
+
+    public synchronized int getGlyphs() {
+        return this.glyphs;
+    }
+
+    public synchronized long getNanos(final Stage stage) {
+        return this.nanos[stage.ordinal()];
+    }
+
+    /**
+     * @return Codepoints of glyphs which ran out of budget, in the order they were
+     *         finished.
+     */
+    public synchronized List<Integer> getOverBudget() {
+        return new ArrayList<>(this.overBudget);
+    }
+
+    /**
+     * @return Slowest glyphs, slowest first.
+     */
+    public synchronized List<GlyphMetrics> getSlowest() {
+        final List<GlyphMetrics> ret = new ArrayList<>(this.slowest);
+        Collections.sort(ret, TraceMetrics.BY_TOTAL.reversed());
+        return ret;
+    }
+
+    /**
+     * Human-readable summary, with one line per stage and counter, then the
+     * slowest glyphs.
+     */
+    public synchronized String summary() {
+        final StringBuilder sb = new StringBuilder();
+        for (final Stage stage : Stage.values()) {
+            sb.append(String.format("%-16s %10s ms total, %10s ms max (%s)%n", TraceMetrics.name(stage),
+                    TraceMetrics.millis(this.nanos[stage.ordinal()]), TraceMetrics.millis(this.maxNanos[stage.ordinal()]),
+                    TraceMetrics.codepoint(this.maxCodepoint[stage.ordinal()])));
+        }
+        for (final Counter counter : Counter.values()) {
+            sb.append(String.format("%-22s %d%n", TraceMetrics.name(counter), this.counters[counter.ordinal()]));
+        }
+        for (final int codepoint : this.overBudget) {
+            sb.append(String.format("Over budget %s%n", TraceMetrics.codepoint(codepoint)));
+        }
+        for (final GlyphMetrics glyph : this.getSlowest()) {
+            sb.append(String.format("Slow glyph %s: %s ms, %d candidates%n", TraceMetrics.codepoint(glyph.getCodepoint()),
+                    TraceMetrics.millis(glyph.getTotalNanos()), glyph.getCount(Counter.CANDIDATES_ENUMERATED)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Dump everything as JSON.
+     */
+    public synchronized void writeJson(final Writer out) throws IOException {
+        out.write("{\n  \"glyphs\": " + this.glyphs + ",\n  \"stages\": {");
+        String separator = "\n";
+        for (final Stage stage : Stage.values()) {
+            out.write(separator + "    \"" + TraceMetrics.name(stage) + "\": {\"totalMs\": "
+                    + TraceMetrics.millis(this.nanos[stage.ordinal()]) + ", \"maxMs\": "
+                    + TraceMetrics.millis(this.maxNanos[stage.ordinal()]) + ", \"maxCodepoint\": \""
+                    + TraceMetrics.codepoint(this.maxCodepoint[stage.ordinal()]) + "\"}");
+            separator = ",\n";
+        }
+        out.write("\n  },\n  \"counters\": ");
+        this.writeJsonCounters(out, this.counters);
+        out.write(",\n  \"overBudget\": [");
+        separator = "";
+        for (final int codepoint : this.overBudget) {
+            out.write(separator + "\"" + TraceMetrics.codepoint(codepoint) + "\"");
+            separator = ", ";
+        }
+        out.write("],\n  \"slowest\": [");
+        separator = "\n";
+        for (final GlyphMetrics glyph : this.getSlowest()) {
+            out.write(separator + "    {\"codepoint\": \"" + TraceMetrics.codepoint(glyph.getCodepoint())
+                    + "\", \"totalMs\": " + TraceMetrics.millis(glyph.getTotalNanos()) + ", \"stagesMs\": {");
+            String stageSeparator = "";
+            for (final Stage stage : Stage.values()) {
+                out.write(stageSeparator + "\"" + TraceMetrics.name(stage) + "\": "
+                        + TraceMetrics.millis(glyph.getNanos(stage)));
+                stageSeparator = ", ";
+            }
+            out.write("}, \"counters\": ");
+            this.writeJsonCounters(out, glyph.counters);
+            out.write("}");
+            separator = ",\n";
+        }
+        out.write("\n  ]\n}\n");
+    }
+
+    private void writeJsonCounters(final Writer out, final long[] values) throws IOException {
+        out.write("{");
+        String separator = "";
+        for (final Counter counter : Counter.values()) {
+            out.write(separator + "\"" + TraceMetrics.name(counter) + "\": " + values[counter.ordinal()]);
+            separator = ", ";
+        }
+        out.write("}");
+    }
+}
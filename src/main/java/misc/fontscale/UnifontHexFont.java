@@ -0,0 +1,238 @@
+package misc.fontscale;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Random access to the glyphs in a unifont .hex file.
+ *
+ * The file is memory-mapped, and an index from codepoint to the offset of its
+ * record is kept next to it, in a file with ".idx" on the end of the name. The
+ * index is rebuilt if the font has changed since it was made. Looking up a
+ * glyph only reads that one record.
+ *
+ * The index is a two-level table: one entry per page of 256 codepoints, then
+ * 256 offsets for each page which has any glyphs in it.
+ */
+public class UnifontHexFont implements RandomAccessFont, Closeable {
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x46534849; // "FSHI"
+
+    private static final int MAX_CODEPOINT = 0x10FFFF;
+
+    private static final int PAGE_BITS = 8;
+
+    private static final int PAGE_SIZE = 1 << UnifontHexFont.PAGE_BITS;
+
+    /**
+     * Where the index for a font is kept.
+     */
+    public static Path indexPath(final Path font) {
+        return font.resolveSibling(font.getFileName() + ".idx");
+    }
+
+    private final FileChannel channel;
+
+    private final ByteBuffer data;
+
+    /**
+     * Offset of the hex digits for each codepoint, PAGE_SIZE entries per page
+     * which is in use, or 0 if there is no glyph.
+     */
+    private int[] offsets;
+
+    /**
+     * Start of each page in offsets, or -1 if there are no glyphs in the page.
+     */
+    private int[] pages;
+
+    private int size;
+
+    /**
+     * Open a font, building its index if there isn't an up-to-date one.
+     *
+     * @param path
+     *            Font file, in .hex format
+     * @throws IOException
+     *             If the font can't be read or contains a bad record
+     */
+    public UnifontHexFont(final Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            final long length = this.channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Font is too large to map");
+            }
+            this.data = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            final long lastModified = Files.getLastModifiedTime(path).toMillis();
+            final Path indexPath = UnifontHexFont.indexPath(path);
+            if (!this.loadIndex(indexPath, length, lastModified)) {
+                this.buildIndex();
+                this.saveIndex(indexPath, length, lastModified);
+            }
+        } catch (final IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    private void buildIndex() throws IOException {
+        final UnifontHexReader reader = new UnifontHexReader(this.data);
+        int[] pages = new int[0];
+        int[] offsets = new int[UnifontHexFont.PAGE_SIZE * 16];
+        int used = 0;
+        int size = 0;
+        int codepoint;
+        while ((codepoint = reader.nextRecord()) >= 0) {
+            if (codepoint > UnifontHexFont.MAX_CODEPOINT) {
+                throw new IOException(String.format("Codepoint %X out of range", codepoint));
+            }
+            final int page = codepoint >>> UnifontHexFont.PAGE_BITS;
+            if (page >= pages.length) {
+                final int oldLength = pages.length;
+                pages = Arrays.copyOf(pages, page + 1);
+                Arrays.fill(pages, oldLength, pages.length, -1);
+            }
+            if (pages[page] < 0) {
+                if ((used + UnifontHexFont.PAGE_SIZE) > offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                pages[page] = used;
+                used += UnifontHexFont.PAGE_SIZE;
+            }
+            final int i = pages[page] + (codepoint & (UnifontHexFont.PAGE_SIZE - 1));
+            if (offsets[i] == 0) {
+                size++;
+            }
+            // Later records replace earlier ones, as if the file was read in order
+            offsets[i] = reader.getHexStart();
+        }
+        this.pages = pages;
+        this.offsets = Arrays.copyOf(offsets, used);
+        this.size = size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    @Override
+    public RasterGlyph getGlyph(final int codepoint) throws IOException {
+        final int page = codepoint >>> UnifontHexFont.PAGE_BITS;
+        if ((codepoint < 0) || (page >= this.pages.length) || (this.pages[page] < 0)) {
+            return null;
+        }
+        final int start = this.offsets[this.pages[page] + (codepoint & (UnifontHexFont.PAGE_SIZE - 1))];
+        if (start == 0) {
+            return null;
+        }
+        int end = start;
+        while ((end < this.data.limit()) && (this.data.get(end) > ' ')) {
+            end++;
+        }
+        try {
+            return RasterGlyph.fromUnifontHex(this.data, start, end);
+        } catch (final RuntimeException e) {
+            throw new IOException(String.format("Codepoint %X: %s", codepoint, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Read the index, if there is one for this version of the font.
+     *
+     * @return True if the index was loaded.
+     */
+    private boolean loadIndex(final Path indexPath, final long length, final long lastModified) {
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if ((in.readInt() != UnifontHexFont.MAGIC) || (in.readInt() != UnifontHexFont.FORMAT_VERSION)
+                    || (in.readLong() != length) || (in.readLong() != lastModified)) {
+                return false;
+            }
+            final int size = in.readInt();
+            final int pageCount = in.readInt();
+            final int offsetCount = in.readInt();
+            if ((pageCount < 0) || (pageCount > ((UnifontHexFont.MAX_CODEPOINT >>> UnifontHexFont.PAGE_BITS) + 1))
+                    || (offsetCount < 0) || (offsetCount > (pageCount * UnifontHexFont.PAGE_SIZE))) {
+                return false;
+            }
+            final int[] pages = new int[pageCount];
+            final int[] offsets = new int[offsetCount];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = in.readInt();
+                if ((pages[i] < -1) || ((pages[i] + UnifontHexFont.PAGE_SIZE) > offsets.length)) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = in.readInt();
+                if ((offsets[i] < 0) || (offsets[i] >= length)) {
+                    return false;
+                }
+            }
+            this.size = size;
+            this.pages = pages;
+            this.offsets = offsets;
+            return true;
+        } catch (final IOException e) {
+            // Truncated or unreadable, so build it again
+            return false;
+        }
+    }
+
+    /**
+     * Write the index next to the font. The index only saves time, so if it can't
+     * be written (eg. the font is in a read-only directory), it is rebuilt next
+     * time instead.
+     */
+    private void saveIndex(final Path indexPath, final long length, final long lastModified) {
+        final Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(UnifontHexFont.MAGIC);
+                out.writeInt(UnifontHexFont.FORMAT_VERSION);
+                out.writeLong(length);
+                out.writeLong(lastModified);
+                out.writeInt(this.size);
+                out.writeInt(this.pages.length);
+                out.writeInt(this.offsets.length);
+                for (final int page : this.pages) {
+                    out.writeInt(page);
+                }
+                for (final int offset : this.offsets) {
+                    out.writeInt(offset);
+                }
+            }
+            // Readers never see a half-written index
+            Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (final IOException e2) {
+                // Nothing more to do
+            }
+        }
+    }
+
+    /**
+     * @return Number of glyphs in the font.
+     */
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,174 @@
+package misc.fontscale;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read glyphs one at a time from a file in unifont .hex format, where each line
+ * is a "codepoint:hex" record.
+ *
+ * Records are parsed straight out of a byte buffer, without decoding lines into
+ * strings first.
+ */
+public class UnifontHexReader implements GlyphSource, Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Bytes read but not yet parsed, between position and limit.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Where to get more bytes from, or null if the whole file is in the buffer.
+     */
+    private final ReadableByteChannel channel;
+
+    private boolean eof;
+
+    private int hexEnd;
+
+    private int hexStart;
+
+    private int lineNumber = 0;
+
+    /**
+     * Read glyphs from a file which is already in memory, such as a
+     * memory-mapped file. The buffer's position is not changed.
+     */
+    public UnifontHexReader(final ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();
+        this.channel = null;
+        this.eof = true;
+    }
+
+    public UnifontHexReader(final Path path) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    public UnifontHexReader(final ReadableByteChannel channel) {
+        this.buffer = ByteBuffer.allocate(UnifontHexReader.BUFFER_SIZE);
+        ((Buffer) this.buffer).flip();
+        this.channel = channel;
+        this.eof = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Read more of the file into the buffer, keeping whatever has not been parsed
+     * yet.
+     */
+    private void fill() throws IOException {
+        this.buffer.compact();
+        if (!this.buffer.hasRemaining()) {
+            // Line is longer than the buffer
+            final ByteBuffer bigger = ByteBuffer.allocate(this.buffer.capacity() * 2);
+            ((Buffer) this.buffer).flip();
+            bigger.put(this.buffer);
+            this.buffer = bigger;
+        }
+        if (this.channel.read(this.buffer) < 0) {
+            this.eof = true;
+        }
+        ((Buffer) this.buffer).flip();
+    }
+
+    int getHexEnd() {
+        return this.hexEnd;
+    }
+
+    int getHexStart() {
+        return this.hexStart;
+    }
+
+    /**
+     * Read the next glyph from the file.
+     *
+     * @return The next glyph, or null at the end of the file.
+     * @throws IOException
+     *             If the file can't be read, or contains a bad record.
+     */
+    @Override
+    public FontGlyph next() throws IOException {
+        final int codepoint = this.nextRecord();
+        if (codepoint < 0) {
+            return null;
+        }
+        try {
+            final RasterGlyph raster = RasterGlyph.fromUnifontHex(this.buffer, this.hexStart, this.hexEnd);
+            return new FontGlyph(codepoint, raster);
+        } catch (final RuntimeException e) {
+            throw new IOException("Line " + this.lineNumber + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Find the next record, without decoding the glyph. The glyph's hex digits
+     * are then between hexStart and hexEnd in the buffer. When reading from a
+     * buffer in memory, these are offsets into the file.
+     *
+     * @return The codepoint, or -1 at the end of the file.
+     * @throws IOException
+     *             If the file can't be read, or contains a bad record.
+     */
+    int nextRecord() throws IOException {
+        while (true) {
+            final int limit = this.buffer.limit();
+            int eol = this.buffer.position();
+            while ((eol < limit) && (this.buffer.get(eol) != '\n')) {
+                eol++;
+            }
+            if ((eol == limit) && !this.eof) {
+                this.fill();
+                continue;
+            }
+            if (this.buffer.position() == limit) {
+                return -1;
+            }
+            this.lineNumber++;
+            int start = this.buffer.position();
+            int end = eol;
+            ((Buffer) this.buffer).position(eol < limit ? eol + 1 : limit);
+            // Skip blank lines, and ignore whitespace around records
+            while ((start < end) && (this.buffer.get(start) <= ' ')) {
+                start++;
+            }
+            while ((end > start) && (this.buffer.get(end - 1) <= ' ')) {
+                end--;
+            }
+            if (start < end) {
+                return this.parse(start, end);
+            }
+        }
+    }
+
+    private int parse(final int start, final int end) throws IOException {
+        int separator = start;
+        long codepoint = 0;
+        while ((separator < end) && (this.buffer.get(separator) != ':')) {
+            final int digit = Character.digit(this.buffer.get(separator), 16);
+            if ((digit < 0) || (codepoint > (Integer.MAX_VALUE >> 4))) {
+                throw new IOException("Line " + this.lineNumber + ": bad codepoint");
+            }
+            codepoint = (codepoint << 4) | digit;
+            separator++;
+        }
+        if ((separator == end) || (separator == start)) {
+            throw new IOException("Line " + this.lineNumber + ": expected codepoint:hex");
+        }
+        this.hexStart = separator + 1;
+        this.hexEnd = end;
+        return (int) codepoint;
+    }
+}
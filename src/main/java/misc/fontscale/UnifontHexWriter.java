@@ -0,0 +1,31 @@
+package misc.fontscale;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Write glyphs to a file in unifont .hex format.
+ */
+public class UnifontHexWriter implements GlyphSink, Closeable {
+    private final BufferedWriter writer;
+
+    public UnifontHexWriter(final Path path) throws IOException {
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.writer.close();
+    }
+
+    @Override
+    public void write(final FontGlyph glyph) throws IOException {
+        this.writer.write(String.format("%04X:", glyph.getCodepoint()));
+        this.writer.write(glyph.getRaster().toUnifontHex());
+        this.writer.write('\n');
+    }
+}
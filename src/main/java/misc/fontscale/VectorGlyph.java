@@ -1,26 +1,206 @@
 package misc.fontscale;
 
 import java.awt.Point;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.Stack;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.function.IntBinaryOperator;
 
 public class VectorGlyph {
+    /**
+     * Most candidate paths to look at in one pass, before giving up on finding
+     * them all.
+     */
+    private static final int CANDIDATE_LIMIT = 100000;
+
+    private static final int SLOPE_FALLING = 2;
+
+    private static final int SLOPE_RISING = 1;
+
+    /**
+     * Size of one pixel in SVG output.
+     */
+    public static final int SVG_SCALE = 10;
+
+    /**
+     * Order paths of the same length by the ids of their vertices, which is the
+     * order that allCandidates() finds them in.
+     */
+    private static int compareIds(final VectorGlyph.PathArena arena, final int lhs, final int rhs) {
+        for (int i = 0; i < arena.length(lhs); i++) {
+            final int ret = Integer.compare(arena.id(lhs, i), arena.id(rhs, i));
+            if (ret != 0) {
+                return ret;
+            }
+        }
+        return 0;
+    }
+
+    private static int findRoot(final int[] parent, int id) {
+        while (parent[id] != id) {
+            // Path halving
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    /**
+     * Read a glyph in the format written by {@link #write(DataOutput)}.
+     */
+    public static VectorGlyph read(final DataInput in) throws IOException {
+        final int width = in.readUnsignedShort();
+        final int height = in.readUnsignedShort();
+        final VectorGlyph ret = new VectorGlyph(width, height);
+        final int size = in.readInt();
+        final int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = in.readInt();
+            if ((ids[i] < 0) || (ids[i] >= (width * height))) {
+                throw new IOException("Vertex out of range");
+            }
+            ret.addVertex(ids[i] % width, ids[i] / width);
+        }
+        for (int i = 0; i < size; i++) {
+            final Vertex v1 = ret.vertices.get(ids[i]);
+            final int edges = in.readUnsignedShort();
+            for (int j = 0; j < edges; j++) {
+                final int id = in.readInt();
+                final Vertex v2 = (id >= 0) && (id < (width * height)) ? ret.vertices.get(id) : null;
+                if (v2 == null) {
+                    throw new IOException("Edge to missing vertex");
+                }
+                v1.join(v2);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Stable sort of path offsets, without boxing them.
+     */
+    private static void sortPaths(final VectorGlyph.IntList paths, final IntBinaryOperator order) {
+        VectorGlyph.sortPaths(paths.items, new int[paths.size], 0, paths.size, order);
+    }
+
+    private static void sortPaths(final int[] paths, final int[] tmp, final int from, final int to,
+            final IntBinaryOperator order) {
+        if ((to - from) < 2) {
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        VectorGlyph.sortPaths(paths, tmp, from, mid, order);
+        VectorGlyph.sortPaths(paths, tmp, mid, to, order);
+        if (order.applyAsInt(paths[mid - 1], paths[mid]) <= 0) {
+            // Already in order, which is common since paths are found in id order
+            return;
+        }
+        System.arraycopy(paths, from, tmp, from, to - from);
+        int i = from;
+        int j = mid;
+        int k = from;
+        while ((i < mid) && (j < to)) {
+            // Only take from the right on a strict win, to keep ties in order
+            paths[k++] = order.applyAsInt(tmp[j], tmp[i]) < 0 ? tmp[j++] : tmp[i++];
+        }
+        System.arraycopy(tmp, i, paths, k, mid - i);
+        k += mid - i;
+        System.arraycopy(tmp, j, paths, k, to - j);
+    }
+
     public class Vertex implements Comparable<Vertex> {
+        /**
+         * Neighbours which are pixel-adjacent (or this vertex itself), as one bit
+         * per cell of the surrounding 3x3 block, in row-major order.
+         */
+        private int adjacent = 0;
+
+        /**
+         * Position in the glyph, y * width + x. Neighbours are ordered by this.
+         */
+        final int id;
+
+        /**
+         * Ids of neighbours which are not pixel-adjacent, sorted. Only the first
+         * linkCount entries are in use.
+         */
+        private int[] links = null;
+
+        private int linkCount = 0;
+
         boolean mark = false;
 
-        private final Set<Vertex> neighbours = new TreeSet<>();
+        private final Set<Vertex> neighbours = new AbstractSet<Vertex>() {
+            @Override
+            public boolean contains(final Object o) {
+                if (!(o instanceof Vertex)) {
+                    return false;
+                }
+                final Vertex other = (Vertex) o;
+                return (other.getOuterType() == VectorGlyph.this) && Vertex.this.isJoined(other);
+            }
+
+            @Override
+            public Iterator<Vertex> iterator() {
+                return new NeighbourIterator();
+            }
+
+            @Override
+            public int size() {
+                return Integer.bitCount(Vertex.this.adjacent) + Vertex.this.linkCount;
+            }
+        };
+
+        /**
+         * Visits neighbours in order of id, by merging the adjacent bits with the
+         * sorted long-range links.
+         */
+        private class NeighbourIterator implements Iterator<Vertex> {
+            private int adjacentLeft = Vertex.this.adjacent;
+
+            private int linkIndex = 0;
+
+            @Override
+            public boolean hasNext() {
+                return (this.adjacentLeft != 0) || (this.linkIndex < Vertex.this.linkCount);
+            }
+
+            @Override
+            public Vertex next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int nextId = Integer.MAX_VALUE;
+                if (this.adjacentLeft != 0) {
+                    nextId = Vertex.this.adjacentId(Integer.numberOfTrailingZeros(this.adjacentLeft));
+                }
+                if ((this.linkIndex < Vertex.this.linkCount) && (Vertex.this.links[this.linkIndex] < nextId)) {
+                    nextId = Vertex.this.links[this.linkIndex++];
+                } else {
+                    this.adjacentLeft &= this.adjacentLeft - 1;
+                }
+                return VectorGlyph.this.vertices.get(nextId);
+            }
+        }
 
         final int x;
 
@@ -29,15 +209,46 @@ public class VectorGlyph {
         public Vertex(final int x, final int y) {
             this.x = x;
             this.y = y;
+            this.id = (y * VectorGlyph.this.width) + x;
+        }
+
+        /**
+         * Bit for other in the adjacent mask, or -1 if it is too far away.
+         */
+        private int adjacentBit(final Vertex other) {
+            final int dx = other.x - this.x;
+            final int dy = other.y - this.y;
+            if ((dx < -1) || (dx > 1) || (dy < -1) || (dy > 1)) {
+                return -1;
+            }
+            return ((dy + 1) * 3) + (dx + 1);
+        }
+
+        private int adjacentId(final int bit) {
+            return this.id + (((bit / 3) - 1) * VectorGlyph.this.width) + ((bit % 3) - 1);
+        }
+
+        private boolean addLink(final int other) {
+            if (this.links == null) {
+                this.links = new int[2];
+            }
+            int pos = Arrays.binarySearch(this.links, 0, this.linkCount, other);
+            if (pos >= 0) {
+                return false;
+            }
+            pos = -pos - 1;
+            if (this.linkCount == this.links.length) {
+                this.links = Arrays.copyOf(this.links, this.linkCount * 2);
+            }
+            System.arraycopy(this.links, pos, this.links, pos + 1, this.linkCount - pos);
+            this.links[pos] = other;
+            this.linkCount++;
+            return true;
         }
 
         @Override
         public int compareTo(final Vertex o) {
-            final int a = Integer.compare(this.y, o.y);
-            if (a != 0) {
-                return a;
-            }
-            return Integer.compare(this.x, o.x);
+            return Integer.compare(this.id, o.id);
         }
 
         @Override
@@ -52,16 +263,10 @@ public class VectorGlyph {
                 return false;
             }
             final Vertex other = (Vertex) obj;
-            if (!this.getOuterType().equals(other.getOuterType())) {
-                return false;
-            }
-            if (this.x != other.x) {
+            if (this.getOuterType() != other.getOuterType()) {
                 return false;
             }
-            if (this.y != other.y) {
-                return false;
-            }
-            return true;
+            return this.id == other.id;
         }
 
         public Set<Vertex> getNeighbours() {
@@ -82,21 +287,50 @@ public class VectorGlyph {
 
         @Override
         public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = (prime * result) + this.getOuterType().hashCode();
-            result = (prime * result) + this.x;
-            result = (prime * result) + this.y;
-            return result;
+            return this.id;
         }
 
         public boolean isMarked() {
             return this.mark;
         }
 
+        private boolean isJoined(final Vertex other) {
+            final int bit = this.adjacentBit(other);
+            if (bit >= 0) {
+                return (this.adjacent & (1 << bit)) != 0;
+            }
+            return (this.linkCount > 0) && (Arrays.binarySearch(this.links, 0, this.linkCount, other.id) >= 0);
+        }
+
         public void join(final Vertex other) {
-            this.neighbours.add(other);
-            other.neighbours.add(this);
+            final int bit = this.adjacentBit(other);
+            if (bit >= 0) {
+                if ((this.adjacent & (1 << bit)) != 0) {
+                    return;
+                }
+                this.adjacent |= 1 << bit;
+                other.adjacent |= 1 << (8 - bit);
+            } else {
+                if (!this.addLink(other.id)) {
+                    return;
+                }
+                other.addLink(this.id);
+            }
+            VectorGlyph.this.coverLine(this, other, 1);
+            VectorGlyph.this.touch(this, other);
+        }
+
+        private boolean removeLink(final int other) {
+            if (this.linkCount == 0) {
+                return false;
+            }
+            final int pos = Arrays.binarySearch(this.links, 0, this.linkCount, other);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(this.links, pos + 1, this.links, pos, this.linkCount - pos - 1);
+            this.linkCount--;
+            return true;
         }
 
         public void setMark(final boolean mark) {
@@ -104,8 +338,21 @@ public class VectorGlyph {
         }
 
         public void unjoin(final Vertex other) {
-            this.neighbours.remove(other);
-            other.neighbours.remove(this);
+            final int bit = this.adjacentBit(other);
+            if (bit >= 0) {
+                if ((this.adjacent & (1 << bit)) == 0) {
+                    return;
+                }
+                this.adjacent &= ~(1 << bit);
+                other.adjacent &= ~(1 << (8 - bit));
+            } else {
+                if (!this.removeLink(other.id)) {
+                    return;
+                }
+                other.removeLink(this.id);
+            }
+            VectorGlyph.this.coverLine(this, other, -1);
+            VectorGlyph.this.touch(this, other);
         }
 
         public void unjoinAll(final Collection<Vertex> other) {
@@ -115,63 +362,724 @@ public class VectorGlyph {
         }
     }
 
+    /**
+     * Number of pixels which are currently drawn differently to when
+     * resetChanges() was last called.
+     */
+    private int changedPixels = 0;
+
+    /**
+     * Number of vertices and edges which draw over each pixel, so that the raster
+     * output is known without drawing the glyph again.
+     */
+    private final int[] coverage;
+
     private String debugPrefix = null;
 
+    /**
+     * Pixels whose covered/uncovered state has flipped since resetChanges().
+     */
+    private final BitSet flipped = new BitSet();
+
     final int height;
 
+    /**
+     * Time to stop simplifying, by System.nanoTime(), if hasDeadline is set.
+     */
+    private long deadline = 0;
+
+    private boolean hasDeadline = false;
+
+    private TraceListener listener = TraceListener.NONE;
+
+    private boolean overBudget = false;
+
+    /**
+     * Ends of each edge joined or unjoined, while combineEdges is keeping track.
+     */
+    private int[] changedEdges = null;
+
+    private int changedEdgeCount = 0;
+
     private int revision = 0;
 
-    final Map<Integer, Vertex> vertices = new TreeMap<>();
+    private RasterGlyph scratchChain = null;
+
+    private RasterGlyph scratchLine = null;
+
+    /**
+     * Steps taken in path searches, to check the deadline every so often.
+     */
+    private int searchSteps = 0;
+
+    final VertexIndex vertices;
 
     final int width;
 
     public VectorGlyph(final int width, final int height) {
         this.width = width;
         this.height = height;
+        this.coverage = new int[width * height];
+        this.vertices = new VertexIndex(width * height);
     }
 
     public void addVertex(final int x, final int y) {
+        if ((x < 0) || (x >= this.width)) {
+            throw new IndexOutOfBoundsException("x out of range");
+        }
+        if ((y < 0) || (y >= this.height)) {
+            throw new IndexOutOfBoundsException("y out of range");
+        }
         final int key = (y * this.width) + x;
         this.vertices.put(key, new Vertex(x, y));
     }
 
-    private List<List<Vertex>> allCandidates() {
-        final List<List<Vertex>> ret = new ArrayList<>();
-        final Stack<Vertex> subList = new Stack<>();
-        for (final Vertex v1 : this.vertices.values()) {
-            this.allCandidates(ret, subList, v1, v1);
+    /**
+     * Candidate paths for merging, handed out longest chain first, then by
+     * geometric length, then in the order they were found. Each length is only
+     * sorted if the search gets that far.
+     */
+    private class Candidates {
+        final PathArena arena;
+
+        /**
+         * Offsets of paths in the arena, for each chain length.
+         */
+        private final List<IntList> bySize = new ArrayList<>();
+
+        /**
+         * True if the search stopped early because there were too many paths.
+         */
+        private boolean limitHit = false;
+
+        /**
+         * True if the search stopped early because the trace ran out of time.
+         */
+        private boolean pastDeadline = false;
+
+        int size = 0;
+
+        Candidates(final PathArena arena) {
+            this.arena = arena;
+        }
+
+        void add(final PathBuffer path) {
+            while (this.bySize.size() <= path.size) {
+                this.bySize.add(new IntList());
+            }
+            this.bySize.get(path.size).add(this.arena.add(path));
+            this.size++;
+        }
+
+        /**
+         * @return Offsets of paths with this many vertices, longest first. Stable,
+         *         so ties stay in the order found.
+         */
+        IntList sorted(final int chainLength) {
+            final IntList paths = this.bySize.get(chainLength);
+            // Sort positions in the list, so lengths only need working out once
+            final IntList ret = new IntList();
+            final double[] lengths = new double[paths.size];
+            for (int i = 0; i < paths.size; i++) {
+                final int path = paths.items[i];
+                lengths[i] = VectorGlyph.this.pathLength(this.arena.id(path, 0), this.arena.id(path, chainLength - 1));
+                ret.add(i);
+            }
+            VectorGlyph.sortPaths(ret, (lhs, rhs) -> Double.compare(lengths[rhs], lengths[lhs]));
+            for (int i = 0; i < ret.size; i++) {
+                ret.items[i] = paths.items[ret.items[i]];
+            }
+            VectorGlyph.this.listener.count(TraceListener.Counter.CANDIDATES_SORTED, ret.size);
+            return ret;
+        }
+
+        int size() {
+            return this.size;
         }
-        return ret;
     }
 
-    private void allCandidates(final List<List<Vertex>> ret, final Stack<Vertex> subList, final Vertex base,
-            final Vertex v1) {
-        if (ret.size() > 100000) {
+    /**
+     * Growable list of ints, for offsets of paths in a {@link PathArena}.
+     */
+    private static class IntList {
+        int[] items = new int[16];
+
+        int size = 0;
+
+        void add(final int value) {
+            if (this.size == this.items.length) {
+                this.items = Arrays.copyOf(this.items, this.size * 2);
+            }
+            this.items[this.size++] = value;
+        }
+    }
+
+    /**
+     * Candidate paths, packed one after another into one int array, so that
+     * finding a hundred thousand paths doesn't mean a hundred thousand lists.
+     * Each path is a header, with its length and flags, then the ids of its
+     * vertices. Paths are referred to by the offset of their header.
+     */
+    private static class PathArena {
+        /**
+         * Whether the path has been checked against the glyph yet.
+         */
+        static final int CHECKED = 1 << 8;
+
+        /**
+         * Whether the path failed the check. This only depends on where the
+         * vertices are, so it never changes.
+         */
+        static final int REJECTED = 1 << 9;
+
+        private static final int LENGTH_MASK = 0xFF;
+
+        int[] data = new int[1024];
+
+        int size = 0;
+
+        /**
+         * @return Offset of the new path.
+         */
+        int add(final PathBuffer path) {
+            if ((this.size + path.size + 1) > this.data.length) {
+                this.data = Arrays.copyOf(this.data, Math.max(this.data.length * 2, this.size + path.size + 1));
+            }
+            final int ret = this.size;
+            this.data[this.size++] = path.size;
+            for (int i = 0; i < path.size; i++) {
+                this.data[this.size++] = path.items[i].id;
+            }
+            return ret;
+        }
+
+        int id(final int path, final int i) {
+            return this.data[path + 1 + i];
+        }
+
+        boolean is(final int path, final int flag) {
+            return (this.data[path] & flag) != 0;
+        }
+
+        int length(final int path) {
+            return this.data[path] & PathArena.LENGTH_MASK;
+        }
+
+        void set(final int path, final int flag) {
+            this.data[path] |= flag;
+        }
+    }
+
+    /**
+     * Path being searched, from the base outwards. Paths have at most 16
+     * vertices.
+     */
+    private static class PathBuffer {
+        final Vertex[] items = new Vertex[16];
+
+        int size = 0;
+
+        Vertex get(final int i) {
+            return this.items[i];
+        }
+
+        void pop() {
+            this.items[--this.size] = null;
+        }
+
+        void push(final Vertex v) {
+            this.items[this.size++] = v;
+        }
+    }
+
+    /**
+     * Candidate paths for merging, kept from one pass of combineEdges to the
+     * next, and handed out in the same order as {@link Candidates}.
+     *
+     * Whether a path is a candidate only depends on where its vertices are, and
+     * on the edges between them. A merge only changes a few edges, so after a
+     * merge, only paths along new edges are searched for. Paths along removed
+     * edges are dropped when they are next looked at.
+     *
+     * Paths are kept in buckets by chain length and geometric length. Ties
+     * within a bucket are broken on the ids of the vertices, which is the order
+     * the full search finds them in. A bucket is only sorted when a pass gets as
+     * far as it, so most paths are never sorted or checked.
+     */
+    private class CandidateQueue {
+        private class Bucket {
+            final IntList paths = new IntList();
+
+            boolean sorted = true;
+
+            /**
+             * Drop paths which are no longer there, or which failed the check.
+             */
+            void compact() {
+                final PathArena arena = CandidateQueue.this.arena;
+                final int[] items = this.paths.items;
+                int kept = 0;
+                for (int i = 0; i < this.paths.size; i++) {
+                    final int path = items[i];
+                    if (arena.is(path, PathArena.REJECTED) || !VectorGlyph.this.isValid(arena, path)) {
+                        continue;
+                    }
+                    // The same path can be found again if its edges were removed
+                    // and joined again. Sorted copies are next to each other.
+                    if (this.sorted && (kept > 0) && (VectorGlyph.compareIds(arena, items[kept - 1], path) == 0)) {
+                        continue;
+                    }
+                    items[kept++] = path;
+                }
+                CandidateQueue.this.total -= this.paths.size - kept;
+                this.paths.size = kept;
+            }
+
+            void sort() {
+                if (this.sorted) {
+                    return;
+                }
+                final PathArena arena = CandidateQueue.this.arena;
+                VectorGlyph.sortPaths(this.paths, (lhs, rhs) -> VectorGlyph.compareIds(arena, lhs, rhs));
+                VectorGlyph.this.listener.count(TraceListener.Counter.CANDIDATES_SORTED, this.paths.size);
+                this.sorted = true;
+                this.compact();
+            }
+        }
+
+        /**
+         * Buckets for each chain length, by geometric length, longest first.
+         */
+        private final List<TreeMap<Double, Bucket>> bySize = new ArrayList<>();
+
+        /**
+         * Every path ever added. Paths which are gone are only dropped from their
+         * bucket, so this only grows, but the queue only lives for one glyph.
+         */
+        final PathArena arena = new PathArena();
+
+        /**
+         * Number of paths in the queue, which may include some which are no
+         * longer there, or are there twice.
+         */
+        private int total = 0;
+
+        /**
+         * @param bases
+         *            Vertices to search from
+         */
+        CandidateQueue(final List<Vertex> bases) {
+            for (final Vertex v : bases) {
+                final Candidates search = this.collector(null);
+                VectorGlyph.this.allCandidates(search, new PathBuffer(), v, v,
+                        VectorGlyph.SLOPE_RISING | VectorGlyph.SLOPE_FALLING);
+                if (search.limitHit || search.pastDeadline) {
+                    return;
+                }
+            }
+        }
+
+        private void add(final PathBuffer path) {
+            while (this.bySize.size() <= path.size) {
+                this.bySize.add(new TreeMap<>(Collections.reverseOrder()));
+            }
+            final double length = VectorGlyph.this.pathLength(path.get(0).id, path.get(path.size - 1).id);
+            final Bucket bucket = this.bySize.get(path.size).computeIfAbsent(length, k -> new Bucket());
+            bucket.paths.add(this.arena.add(path));
+            bucket.sorted = false;
+            this.total++;
+            VectorGlyph.this.listener.count(TraceListener.Counter.CANDIDATES_ENUMERATED, 1);
+        }
+
+        /**
+         * Find every path which goes along a new edge, in either direction.
+         *
+         * @param found
+         *            Edges which have already been searched along. Paths which
+         *            also go along one of these were found then, so are skipped.
+         * @return False if the search found too many paths, or ran out of time.
+         */
+        private boolean addAlong(final Vertex v1, final Vertex v2, final Set<Long> found) {
+            for (final Vertex base : this.nearby(v1, v2)) {
+                for (int i = 0; i < 2; i++) {
+                    final Vertex from = i == 0 ? v1 : v2;
+                    final Vertex to = i == 0 ? v2 : v1;
+                    // Paths only ever head away from the base
+                    if (VectorGlyph.this.distanceSquared(base, to) <= VectorGlyph.this.distanceSquared(base,
+                            from)) {
+                        continue;
+                    }
+                    int slopes = VectorGlyph.this.isLinear(from, to,
+                            VectorGlyph.SLOPE_RISING | VectorGlyph.SLOPE_FALLING);
+                    if (base != from) {
+                        slopes = VectorGlyph.this.isLinear(base, to, VectorGlyph.this.isLinear(base, from, slopes));
+                    }
+                    if (slopes == 0) {
+                        continue;
+                    }
+                    final Candidates search = this.collector(found);
+                    VectorGlyph.this.pathsAlong(search, new PathBuffer(), base, base, slopes, from, to, false);
+                    if (search.limitHit || search.pastDeadline) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Search results go straight into the queue.
+         */
+        private Candidates collector(final Set<Long> found) {
+            final Candidates ret = new Candidates(this.arena) {
+                @Override
+                void add(final PathBuffer path) {
+                    this.size++;
+                    if ((found == null) || (VectorGlyph.this.countEdges(path, found) == 1)) {
+                        CandidateQueue.this.add(path);
+                    }
+                }
+            };
+            // So that the limit applies to the whole glyph
+            ret.size = this.total;
+            return ret;
+        }
+
+        /**
+         * Hands out paths which are still there and have not failed the check.
+         */
+        class Cursor {
+            private Iterator<Bucket> buckets = Collections.emptyIterator();
+
+            private IntList current = null;
+
+            private int index = 0;
+
+            private int nextSize = CandidateQueue.this.bySize.size() - 1;
+
+            /**
+             * @return Offset of the next path in the arena, or -1 if there are no
+             *         more.
+             */
+            int next() {
+                final PathArena arena = CandidateQueue.this.arena;
+                while (true) {
+                    if ((this.current != null) && (this.index < this.current.size)) {
+                        final int path = this.current.items[this.index++];
+                        if (!arena.is(path, PathArena.REJECTED) && VectorGlyph.this.isValid(arena, path)) {
+                            return path;
+                        }
+                    } else if (this.buckets.hasNext()) {
+                        final Bucket bucket = this.buckets.next();
+                        bucket.sort();
+                        this.current = bucket.paths;
+                        this.index = 0;
+                    } else if (this.nextSize >= 0) {
+                        this.buckets = CandidateQueue.this.bySize.get(this.nextSize--).values().iterator();
+                    } else {
+                        return -1;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Vertices close enough to an edge, by number of edges, for a path from
+         * them to go along it.
+         */
+        private List<Vertex> nearby(final Vertex v1, final Vertex v2) {
+            final List<Vertex> ret = new ArrayList<>();
+            final BitSet seen = new BitSet();
+            ret.add(v1);
+            ret.add(v2);
+            seen.set(v1.id);
+            seen.set(v2.id);
+            int start = 0;
+            // Paths have at most 16 vertices
+            for (int hops = 0; hops < 14; hops++) {
+                final int end = ret.size();
+                for (int i = start; i < end; i++) {
+                    for (final Vertex neighbour : ret.get(i).getNeighbours()) {
+                        if (!seen.get(neighbour.id)) {
+                            seen.set(neighbour.id);
+                            ret.add(neighbour);
+                        }
+                    }
+                }
+                start = end;
+            }
+            return ret;
+        }
+
+        /**
+         * Bring the queue up to date with the edges changed since the last
+         * refresh.
+         *
+         * @return False if there are too many paths to keep, in which case the
+         *         queue is no good, and passes must search the whole glyph.
+         */
+        boolean refresh() {
+            final int[] edges = VectorGlyph.this.changedEdges;
+            final int count = VectorGlyph.this.changedEdgeCount;
+            VectorGlyph.this.changedEdgeCount = 0;
+            // Edges which were removed and joined again are the same as before
+            final Set<Long> changed = new HashSet<>();
+            for (int i = 0; i < count; i += 2) {
+                final long key = VectorGlyph.this.edgeKey(edges[i], edges[i + 1]);
+                if (!changed.add(key)) {
+                    changed.remove(key);
+                }
+            }
+            final Set<Long> found = new HashSet<>();
+            for (int i = 0; i < count; i += 2) {
+                final Vertex v1 = VectorGlyph.this.vertices.get(edges[i]);
+                final Vertex v2 = VectorGlyph.this.vertices.get(edges[i + 1]);
+                if ((v1 == null) || (v2 == null) || !v1.isJoined(v2)) {
+                    continue;
+                }
+                final long key = VectorGlyph.this.edgeKey(v1.id, v2.id);
+                if (!changed.contains(key) || !found.add(key)) {
+                    continue;
+                }
+                if (!this.addAlong(v1, v2, found)) {
+                    return false;
+                }
+            }
+            if (this.total > VectorGlyph.CANDIDATE_LIMIT) {
+                // Count again, without paths which are gone
+                for (final TreeMap<Double, Bucket> buckets : this.bySize) {
+                    for (final Bucket bucket : buckets.values()) {
+                        bucket.sort();
+                        bucket.compact();
+                    }
+                }
+            }
+            return this.total <= VectorGlyph.CANDIDATE_LIMIT;
+        }
+    }
+
+    /**
+     * Vertices, indexed directly by position (y * width + x). Iterates in
+     * row-major order, and keeps pixel coverage up to date as vertices come and
+     * go.
+     */
+    class VertexIndex extends AbstractCollection<Vertex> {
+        private final Vertex[] grid;
+
+        private int size = 0;
+
+        VertexIndex(final int capacity) {
+            this.grid = new Vertex[capacity];
+        }
+
+        @Override
+        public void clear() {
+            Arrays.fill(this.grid, null);
+            this.size = 0;
+        }
+
+        Vertex get(final int key) {
+            return this.grid[key];
+        }
+
+        @Override
+        public Iterator<Vertex> iterator() {
+            return new Iterator<Vertex>() {
+                private int current = -1;
+
+                private int next = this.find(0);
+
+                private int find(int key) {
+                    while ((key < VertexIndex.this.grid.length) && (VertexIndex.this.grid[key] == null)) {
+                        key++;
+                    }
+                    return key;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return this.next < VertexIndex.this.grid.length;
+                }
+
+                @Override
+                public Vertex next() {
+                    if (!this.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    this.current = this.next;
+                    this.next = this.find(this.next + 1);
+                    return VertexIndex.this.grid[this.current];
+                }
+
+                @Override
+                public void remove() {
+                    if ((this.current < 0) || (VertexIndex.this.grid[this.current] == null)) {
+                        throw new IllegalStateException();
+                    }
+                    VertexIndex.this.remove(this.current);
+                }
+            };
+        }
+
+        Vertex put(final int key, final Vertex v) {
+            final Vertex old = this.grid[key];
+            this.grid[key] = v;
+            if (old == null) {
+                this.size++;
+                VectorGlyph.this.cover(v.getX(), v.getY(), 1);
+            }
+            return old;
+        }
+
+        Vertex remove(final int key) {
+            final Vertex old = this.grid[key];
+            if (old != null) {
+                this.grid[key] = null;
+                this.size--;
+                VectorGlyph.this.cover(old.getX(), old.getY(), -1);
+            }
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+    }
+
+    /**
+     * @param bases
+     *            Vertices to search from. Any which have since been removed are
+     *            skipped.
+     */
+    private Candidates allCandidates(final List<Vertex> bases) {
+        final Candidates ret = new Candidates(new PathArena());
+        final PathBuffer subList = new PathBuffer();
+        for (final Vertex v1 : bases) {
+            if (ret.pastDeadline) {
+                break;
+            }
+            if (this.vertices.get(v1.id) != v1) {
+                continue;
+            }
+            this.allCandidates(ret, subList, v1, v1, VectorGlyph.SLOPE_RISING | VectorGlyph.SLOPE_FALLING);
+        }
+        this.listener.count(TraceListener.Counter.CANDIDATES_ENUMERATED, ret.size());
+        if (ret.limitHit) {
             System.err.println(
                     "Glyph has a lot of paths, trace is no good. Can you invert it or make the lines thinner?");
+            this.listener.count(TraceListener.Counter.CANDIDATE_LIMIT_HIT, 1);
+        }
+        return ret;
+    }
+
+    private void allCandidates(final Candidates ret, final PathBuffer subList, final Vertex base,
+            final Vertex v1, final int slopes) {
+        if (ret.size() > VectorGlyph.CANDIDATE_LIMIT) {
             // Combinatorial explosion, give up.
+            ret.limitHit = true;
+            return;
+        }
+        if (this.isPastDeadline(ret)) {
             return;
         }
         v1.setMark(true);
         subList.push(v1);
-        final double baseDistance = this.geometricLen(base, v1);
+        final int baseDistance = this.distanceSquared(base, v1);
         for (final Vertex v2 : v1.getNeighbours()) {
             if (v2.isMarked()) {
                 continue;
             }
-            if ((this.geometricLen(base, v2) > baseDistance) && (subList.size() < 16)) {
-                this.allCandidates(ret, subList, base, v2);
+            if ((this.distanceSquared(base, v2) > baseDistance) && (subList.size < 16)) {
+                final int nextSlopes = this.isLinear(subList, v2, slopes);
+                if (nextSlopes != 0) {
+                    this.allCandidates(ret, subList, base, v2, nextSlopes);
+                }
             }
         }
-        if (subList.size() > 2) {
-            ret.add(new ArrayList<>(subList));
+        if (subList.size > 2) {
+            ret.add(subList);
         }
         v1.setMark(false);
         subList.pop();
     }
 
+    /**
+     * Same search as allCandidates(), but only for paths which go from one vertex
+     * straight to another. Only vertices closer to the base than the first one
+     * can come before it, so the search stays small.
+     */
+    private void pathsAlong(final Candidates ret, final PathBuffer subList, final Vertex base, final Vertex v1,
+            final int slopes, final Vertex from, final Vertex to, final boolean along) {
+        if (ret.size() > VectorGlyph.CANDIDATE_LIMIT) {
+            ret.limitHit = true;
+            return;
+        }
+        if (this.isPastDeadline(ret)) {
+            return;
+        }
+        v1.setMark(true);
+        subList.push(v1);
+        final int baseDistance = this.distanceSquared(base, v1);
+        final int fromDistance = this.distanceSquared(base, from);
+        for (final Vertex v2 : v1.getNeighbours()) {
+            if (v2.isMarked()) {
+                continue;
+            }
+            if (!along) {
+                if ((v1 == from) ? (v2 != to)
+                        : ((v2 != from) && (this.distanceSquared(base, v2) >= fromDistance))) {
+                    continue;
+                }
+            }
+            if ((this.distanceSquared(base, v2) > baseDistance) && (subList.size < 16)) {
+                int nextSlopes = this.isLinear(subList, v2, slopes);
+                if (!along && (v2 != from)) {
+                    // The edge will be on the path too
+                    nextSlopes = this.isLinear(v2, to, this.isLinear(v2, from, nextSlopes));
+                }
+                if (nextSlopes != 0) {
+                    this.pathsAlong(ret, subList, base, v2, nextSlopes, from, to, along || (v2 == to));
+                }
+            }
+        }
+        if (along && (subList.size > 2)) {
+            ret.add(subList);
+        }
+        v1.setMark(false);
+        subList.pop();
+    }
+
+    /**
+     * @return Number of edges along the path which are in the set.
+     */
+    private int countEdges(final PathBuffer path, final Set<Long> edges) {
+        int ret = 0;
+        for (int i = 1; i < path.size; i++) {
+            if (edges.contains(this.edgeKey(path.get(i - 1).id, path.get(i).id))) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return The vertices of a path in the arena, for checking and merging.
+     */
+    private List<Vertex> toList(final PathArena arena, final int path) {
+        final List<Vertex> ret = new ArrayList<>(arena.length(path));
+        for (int i = 0; i < arena.length(path); i++) {
+            ret.add(this.vertices.get(arena.id(path, i)));
+        }
+        return ret;
+    }
+
+    private long edgeKey(final int id1, final int id2) {
+        return ((long) Math.min(id1, id2) << 32) | Math.max(id1, id2);
+    }
+
     private void collapse(final List<Vertex> vtx) {
-        final RasterGlyph before = this.toRasterGlyph();
+        this.resetChanges();
         // Look for nodes that can be eliminated completely
         final List<Vertex> newLine = new ArrayList<>();
         final List<Vertex> deleteMe = new ArrayList<>();
@@ -187,7 +1095,7 @@ public class VectorGlyph {
             final List<Vertex> neighbours = new ArrayList<>(v1.getNeighbours());
             v1.unjoinAll(neighbours);
         }
-        this.vertices.values().removeAll(deleteMe);
+        this.removeVertices(deleteMe);
         // Join new line together
         final Iterator<Vertex> lineIt = newLine.iterator();
         Vertex prev = lineIt.next();
@@ -196,8 +1104,7 @@ public class VectorGlyph {
             prev.join(cur);
             prev = cur;
         }
-        final RasterGlyph after = this.toRasterGlyph();
-        if (!after.equals(before)) {
+        if (this.changedPixels != 0) {
             // Merge changed raster output. This usually involves
             // diagonals that are crossing things, so we can try cutting through more
             // severely to
@@ -206,6 +1113,7 @@ public class VectorGlyph {
             // non-45 degree diagonals in such a configuration depending on how complex the
             // glyph is.
             System.err.println("Warning: Had some trouble tracing this glyph. Manually review trace result.");
+            this.listener.count(TraceListener.Counter.COLLAPSE_FULLY, 1);
             this.collapseFully(newLine);
             return;
         }
@@ -228,71 +1136,68 @@ public class VectorGlyph {
             final List<Vertex> neighbours = new ArrayList<>(v1.getNeighbours());
             v1.unjoinAll(neighbours);
         }
-        this.vertices.values().removeAll(deleteMe);
+        this.removeVertices(deleteMe);
         // Join new line together
         newLine.get(0).join(newLine.get(1));
     }
 
-    private void combineEdge() {
+    private void combineEdge(final List<Vertex> bases) {
         final int size = this.getVertices().size();
         // Every possible way to walk through current structure (hundreds)
-        final List<List<Vertex>> paths = this.allCandidates();
-        // Look at longest path first
-        Collections.sort(paths, (lhs, rhs) -> this.compareVertexCandidate(lhs, rhs));
+        final Candidates paths = this.allCandidates(bases);
+        if (paths.pastDeadline) {
+            this.overBudget = true;
+            return;
+        }
         // Filter for first candidate that does not modify the glyph
-        for (final List<Vertex> vtx : paths) {
-            final Vertex vtx1 = vtx.get(0);
-            final Vertex vtx2 = vtx.get(vtx.size() - 1);
-            if (this.isDiagonal(vtx)) {
-                // Completely exclude 3-segment diagonals that are not a 45 degree angle.
-                if ((Math.abs(vtx1.getX() - vtx2.getX()) < 2) || (Math.abs(vtx1.getY() - vtx2.getY()) < 2)) {
-                    continue;
-                }
-            }
-
-            // Draw to a single line from start to finish
-            final RasterGlyph nuGlyph = new RasterGlyph(this.width, this.height);
-            nuGlyph.line(vtx1.getX(), vtx2.getX(), vtx1.getY(), vtx2.getY());
-            // Draw the entire chain of vertices as lines
-            final RasterGlyph baseGlyph = new RasterGlyph(this.width, this.height);
-            for (int i = 0; i < (vtx.size() - 1); i++) {
-                baseGlyph.line(vtx.get(i).getX(), vtx.get(i + 1).getX(), vtx.get(i).getY(), vtx.get(i + 1).getY());
-            }
-            // Skip now if output would change
-            if (!nuGlyph.equals(baseGlyph)) {
+        for (int chainLength = paths.bySize.size() - 1; chainLength >= 0; chainLength--) {
+            if (paths.bySize.get(chainLength).size == 0) {
                 continue;
             }
-            if (this.debugPrefix != null) {
-                // Illustrates process for debugging...
-                if (this.revision == 0) {
-                    // Initial snapshot
-                    final String svg = this.toSvg();
-                    final String fn = String.format("%s-%03d.svg", this.debugPrefix, this.revision);
-                    try (PrintWriter out = new PrintWriter(fn)) {
-                        out.println(svg);
-                    } catch (final FileNotFoundException e) {
-                        throw new RuntimeException(e);
-                    }
+            final IntList sorted = paths.sorted(chainLength);
+            for (int i = 0; i < sorted.size; i++) {
+                if (this.isPastDeadline()) {
+                    this.overBudget = true;
+                    return;
+                }
+                final List<Vertex> vtx = this.toList(paths.arena, sorted.items[i]);
+                if (!this.isMergeable(vtx)) {
+                    this.listener.count(TraceListener.Counter.CANDIDATES_REJECTED, 1);
+                    continue;
                 }
-                for (final Vertex v : vtx) {
-                    v.setMark(true);
+                this.merge(vtx);
+                // Ho humm
+                if (size != this.vertices.size()) {
+                    return;
                 }
             }
-            this.collapse(vtx);
-            if (this.debugPrefix != null) {
-                // Set up for monitoring w/ breakpoint
-                final String svg = this.toSvg();
-                final String fn = String.format("%s-%03d.svg", this.debugPrefix, this.revision + 1);
-                try (PrintWriter out = new PrintWriter(fn)) {
-                    out.println(svg);
-                } catch (final FileNotFoundException e) {
-                    throw new RuntimeException(e);
-                }
-                for (final Vertex v : vtx) {
-                    v.setMark(false);
+        }
+    }
+
+    /**
+     * Same as combineEdge(), but takes candidates from a queue which is kept
+     * between passes, instead of searching the whole glyph each time.
+     */
+    private void combineEdge(final CandidateQueue queue) {
+        final int size = this.getVertices().size();
+        final CandidateQueue.Cursor it = queue.new Cursor();
+        final PathArena arena = queue.arena;
+        int path;
+        while ((path = it.next()) >= 0) {
+            if (this.isPastDeadline()) {
+                this.overBudget = true;
+                return;
+            }
+            final List<Vertex> vtx = this.toList(arena, path);
+            if (!arena.is(path, PathArena.CHECKED)) {
+                arena.set(path, PathArena.CHECKED);
+                if (!this.isMergeable(vtx)) {
+                    this.listener.count(TraceListener.Counter.CANDIDATES_REJECTED, 1);
+                    arena.set(path, PathArena.REJECTED);
+                    continue;
                 }
             }
-            // Ho humm
+            this.merge(vtx);
             if (size != this.vertices.size()) {
                 return;
             }
@@ -300,51 +1205,178 @@ public class VectorGlyph {
     }
 
     public void combineEdges() {
+        this.combineEdges(TraceBudget.UNLIMITED);
+    }
+
+    /**
+     * Merge edges until nothing more can be merged, or the budget runs out. The
+     * glyph still draws the same way if it runs out, but will have more edges.
+     *
+     * @param budget
+     *            Limit on time and passes over the glyph
+     * @return True if the glyph was simplified as far as it will go, false if the
+     *         budget ran out first.
+     */
+    public boolean combineEdges(final TraceBudget budget) {
+        this.hasDeadline = budget.getMaxNanos() > 0;
+        this.deadline = System.nanoTime() + budget.getMaxNanos();
+        this.overBudget = false;
+        // Merges in one stroke never change which paths can be merged in another,
+        // so each is simplified on its own, with a much smaller search.
+        for (final List<Vertex> component : this.components()) {
+            if (component.size() < 3) {
+                // Too small to have any paths
+                continue;
+            }
+            this.combineEdges(component, budget);
+            if (this.isPastDeadline()) {
+                // Out of time for every component, not just this one
+                this.overBudget = true;
+                break;
+            }
+        }
+        this.hasDeadline = false;
+        if (this.overBudget) {
+            this.listener.count(TraceListener.Counter.BUDGET_EXCEEDED, 1);
+        }
+        return !this.overBudget;
+    }
+
+    /**
+     * Merge edges within one connected component. Each component gets the
+     * budget's passes to itself, so that the budget doesn't depend on how many
+     * strokes a glyph has.
+     *
+     * @param component
+     *            Vertices of the component, in row-major order
+     */
+    private void combineEdges(final List<Vertex> component, final TraceBudget budget) {
+        int iterations = 0;
+        this.changedEdges = new int[64];
+        this.changedEdgeCount = 0;
+        CandidateQueue queue = new CandidateQueue(component);
         int len;
         do {
             len = this.vertices.size();
-            this.combineEdge();
+            if (this.isPastDeadline()) {
+                // Ran out of time finding paths for the queue
+                this.overBudget = true;
+                break;
+            }
+            if ((queue != null) && !queue.refresh()) {
+                // Too many paths to keep, so search the whole glyph on each pass
+                queue = null;
+                this.changedEdges = null;
+                if (this.isPastDeadline()) {
+                    this.overBudget = true;
+                    break;
+                }
+            }
+            if (queue == null) {
+                this.combineEdge(component);
+            } else {
+                this.combineEdge(queue);
+            }
+            this.listener.count(TraceListener.Counter.COMBINE_ITERATIONS, 1);
             this.revision++;
-        } while (len != this.vertices.size());
+            iterations++;
+        } while ((len != this.vertices.size()) && !this.isPastDeadline()
+                && ((budget.getMaxIterations() == 0) || (iterations < budget.getMaxIterations())));
+        if (len != this.vertices.size()) {
+            // Stopped while the last pass was still changing the glyph
+            this.overBudget = true;
+        }
+        this.changedEdges = null;
+    }
+
+    private boolean isPastDeadline() {
+        return this.hasDeadline && ((System.nanoTime() - this.deadline) > 0);
+    }
+
+    /**
+     * Check the time every so often during a search, since one search can look
+     * at up to CANDIDATE_LIMIT paths.
+     */
+    private boolean isPastDeadline(final Candidates search) {
+        if (!search.pastDeadline && this.hasDeadline && ((++this.searchSteps % 1024) == 0)) {
+            search.pastDeadline = this.isPastDeadline();
+        }
+        return search.pastDeadline;
+    }
+
+    /**
+     * Split the glyph into groups of vertices which are joined to each other by
+     * edges, using union-find. Strokes which never touch end up in different
+     * groups.
+     *
+     * @return Groups, each in row-major order, ordered by their first vertex.
+     */
+    List<List<Vertex>> components() {
+        final int[] parent = new int[this.width * this.height];
+        for (final Vertex v : this.vertices) {
+            parent[v.id] = v.id;
+        }
+        for (final Vertex v1 : this.vertices) {
+            for (final Vertex v2 : v1.getNeighbours()) {
+                final int root1 = VectorGlyph.findRoot(parent, v1.id);
+                final int root2 = VectorGlyph.findRoot(parent, v2.id);
+                // The root is always the first vertex of its group
+                if (root1 < root2) {
+                    parent[root2] = root1;
+                } else if (root2 < root1) {
+                    parent[root1] = root2;
+                }
+            }
+        }
+        final List<List<Vertex>> ret = new ArrayList<>();
+        final int[] group = new int[this.width * this.height];
+        for (final Vertex v : this.vertices) {
+            final int root = VectorGlyph.findRoot(parent, v.id);
+            if (root == v.id) {
+                group[root] = ret.size();
+                ret.add(new ArrayList<>());
+            }
+            ret.get(group[root]).add(v);
+        }
+        return ret;
     }
 
-    private int compareVertexCandidate(final List<Vertex> lhs, final List<Vertex> rhs) {
-        // // Compare on diagonality - diagonal first
-        // if (lhsDiagonal != rhsDiagonal) {
-        // return -Boolean.compare(lhsDiagonal, rhsDiagonal);
-        // }
-        // Compare on length - longer chain of vertices first
-        final int vertexSizeCompare = Integer.compare(rhs.size(), lhs.size());
-        if (vertexSizeCompare != 0) {
-            return vertexSizeCompare;
+    private void cover(final int x, final int y, final int delta) {
+        if ((x < 0) || (x >= this.width) || (y < 0) || (y >= this.height)) {
+            return;
+        }
+        final int i = (y * this.width) + x;
+        final boolean wasCovered = this.coverage[i] > 0;
+        this.coverage[i] += delta;
+        if (wasCovered != (this.coverage[i] > 0)) {
+            this.flipped.flip(i);
+            this.changedPixels += this.flipped.get(i) ? 1 : -1;
         }
-        // Compare on geometric distance - slight handicap for diagonals since they have
-        // an advantage but will claim pixels in non-intuitive ways.
-        final boolean lhsDiagonal = this.isDiagonal(lhs);
-        final boolean rhsDiagonal = this.isDiagonal(rhs);
-        final double lhsLen = this.geometricLen(lhs) - (lhsDiagonal ? 1 : 0);
-        final double rhsLen = this.geometricLen(rhs) - (rhsDiagonal ? 1 : 0);
-        return Double.compare(rhsLen, lhsLen);
+    }
+
+    private void coverLine(final Vertex v1, final Vertex v2, final int delta) {
+        Bresenham.line(v1.getX(), v2.getX(), v1.getY(), v2.getY(), (x, y) -> this.cover(x, y, delta));
     }
 
     public void copyFrom(final VectorGlyph originalVector, final Geometry srcGeometry,
             final Geometry dstGeometry) {
+        this.copyFrom(originalVector, srcGeometry.transformTo(dstGeometry));
+    }
+
+    public void copyFrom(final VectorGlyph originalVector, final Geometry.Transform transform) {
         // Avoiding problems if you copy in twice (unjoined edges)
         this.vertices.clear();
+        Arrays.fill(this.coverage, 0);
         // Vertices
-        for (final Vertex v1 : originalVector.vertices.values()) {
-            DiscretePoint target = srcGeometry.transformPoint(v1.getX(), v1.getY(), dstGeometry);
-            this.addVertex(target.getX(), target.getY());
+        for (final Vertex v1 : originalVector.vertices) {
+            this.addVertex(transform.transformX(v1.getX()), transform.transformY(v1.getY()));
         }
         // Lines as SVG
-        for (final Vertex v1 : originalVector.vertices.values()) {
+        for (final Vertex v1 : originalVector.vertices) {
+            final Vertex v3 = this.getVertex(transform.transformX(v1.getX()), transform.transformY(v1.getY()));
             for (final Vertex v2 : v1.getNeighbours()) {
-                // v1 is joined to v2 on original graph
-                DiscretePoint target1 = srcGeometry.transformPoint(v1.getX(), v1.getY(), dstGeometry);
-                DiscretePoint target2 = srcGeometry.transformPoint(v2.getX(), v2.getY(), dstGeometry);
-                // v3, v4 will be joined on new graph
-                Vertex v3 = this.getVertex(target1.getX(), target1.getY());
-                Vertex v4 = this.getVertex(target2.getX(), target2.getY());
+                // v1 is joined to v2 on original graph, v3 and v4 will be joined on new graph
+                final Vertex v4 = this.getVertex(transform.transformX(v2.getX()), transform.transformY(v2.getY()));
                 v3.join(v4);
             }
         }
@@ -385,20 +1417,30 @@ public class VectorGlyph {
         }
     }
 
-    private double geometricLen(final List<Vertex> vtx) {
-        final Vertex vtx1 = vtx.get(0);
-        final Vertex vtx2 = vtx.get(vtx.size() - 1);
-        return this.geometricLen(vtx1, vtx2);
+    /**
+     * Square of pathLength() without the handicap, which puts distances in the
+     * same order without rounding.
+     */
+    private int distanceSquared(final Vertex v1, final Vertex v2) {
+        final int dx = v1.x - v2.x;
+        final int dy = v1.y - v2.y;
+        return (dx * dx) + (dy * dy);
     }
 
-    private double geometricLen(final Vertex vtx1, final Vertex vtx2) {
-        final double a = vtx1.getX() - vtx2.getX();
-        final double b = vtx1.getY() - vtx2.getY();
-        return Math.sqrt(Math.pow(a, 2) + Math.pow(b, 2));
+    /**
+     * Geometric length of a path between the vertices with these ids, with a
+     * slight handicap for diagonals since they have an advantage but will claim
+     * pixels in non-intuitive ways.
+     */
+    private double pathLength(final int id1, final int id2) {
+        final int dx = (id1 % this.width) - (id2 % this.width);
+        final int dy = (id1 / this.width) - (id2 / this.width);
+        return Math.sqrt((dx * dx) + (dy * dy)) - (((dx != 0) && (dy != 0)) ? 1 : 0);
     }
 
-    private Set<Vertex> getAdjacent(final Vertex v) {
-        final Set<Vertex> ret = new TreeSet<>();
+    private List<Vertex> getAdjacent(final Vertex v) {
+        // Visited in row-major order, which is already neighbour order
+        final List<Vertex> ret = new ArrayList<>(8);
         for (int y = -1; y < 2; y++) {
             for (int x = -1; x < 2; x++) {
                 if ((x == 0) && (y == 0)) {
@@ -459,7 +1501,7 @@ public class VectorGlyph {
     }
 
     public Collection<Vertex> getVertices() {
-        return this.vertices.values();
+        return this.vertices;
     }
 
     private boolean isDiagonal(final List<Vertex> vtx) {
@@ -468,34 +1510,97 @@ public class VectorGlyph {
         return ((vtx1.getX() != vtx2.getX()) && (vtx1.getY() != vtx2.getY()));
     }
 
-    private boolean isLinear(final List<Vertex> ls, final Vertex v1) {
-        // Planning to check here for evidence of not being able to fit a line to
-        // this set of points, for pruning.
-        if (ls.size() < 1) {
-            return true;
+    /**
+     * Check whether a single line from start to finish of a chain of vertices
+     * covers exactly the same pixels as the chain itself.
+     */
+    private boolean isStraight(final List<Vertex> vtx) {
+        if (this.scratchLine == null) {
+            // Re-used for every candidate, since glyphs are only traced on one thread
+            this.scratchLine = new RasterGlyph(this.width, this.height);
+            this.scratchChain = new RasterGlyph(this.width, this.height);
+        } else {
+            this.scratchLine.clear();
+            this.scratchChain.clear();
         }
-        if (this.geometricLen(ls.get(0), v1) > this.geometricLen(ls)) {
-            return true;
+        final Vertex vtx1 = vtx.get(0);
+        final Vertex vtx2 = vtx.get(vtx.size() - 1);
+        // Draw to a single line from start to finish
+        this.scratchLine.line(vtx1.getX(), vtx2.getX(), vtx1.getY(), vtx2.getY());
+        // Draw the entire chain of vertices as lines
+        for (int i = 0; i < (vtx.size() - 1); i++) {
+            this.scratchChain.line(vtx.get(i).getX(), vtx.get(i + 1).getX(), vtx.get(i).getY(),
+                    vtx.get(i + 1).getY());
+        }
+        return this.scratchLine.equals(this.scratchChain);
+    }
+
+    /**
+     * Check which staircases a path could still lie on after adding v1. Every pixel
+     * of a straight line lies on a staircase which only heads one way in each of x
+     * and y, so once no staircase fits, no path starting with these vertices can
+     * be straight, and it isn't worth searching further.
+     *
+     * @param ls
+     *            Path so far
+     * @param v1
+     *            Vertex to add
+     * @param slopes
+     *            Staircases that ls fits on, as SLOPE_RISING and SLOPE_FALLING bits
+     * @return Staircases that ls plus v1 fits on, or 0 if there are none
+     */
+    private int isLinear(final PathBuffer ls, final Vertex v1, int slopes) {
+        for (int i = 0; i < ls.size; i++) {
+            slopes = this.isLinear(v1, ls.get(i), slopes);
+        }
+        return slopes;
+    }
+
+    /**
+     * Same as above, for a single pair of vertices.
+     */
+    private int isLinear(final Vertex v1, final Vertex v2, final int slopes) {
+        final int slope = Integer.signum(v2.getX() - v1.getX()) * Integer.signum(v2.getY() - v1.getY());
+        if (slope < 0) {
+            return slopes & ~VectorGlyph.SLOPE_RISING;
+        } else if (slope > 0) {
+            return slopes & ~VectorGlyph.SLOPE_FALLING;
+        }
+        return slopes;
+    }
+
+    /**
+     * @return True if every vertex along the path is still there, and still
+     *         joined to the next one. Vertices are never added back during
+     *         combineEdges(), so one at the same position is the same vertex.
+     */
+    private boolean isValid(final PathArena arena, final int path) {
+        Vertex prev = null;
+        for (int i = 0; i < arena.length(path); i++) {
+            final Vertex v = this.vertices.get(arena.id(path, i));
+            if ((v == null) || ((prev != null) && !prev.isJoined(v))) {
+                return false;
+            }
+            prev = v;
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a candidate path can be merged into one edge without
+     * changing the glyph. This only depends on where the vertices are.
+     */
+    private boolean isMergeable(final List<Vertex> vtx) {
+        final Vertex vtx1 = vtx.get(0);
+        final Vertex vtx2 = vtx.get(vtx.size() - 1);
+        if (this.isDiagonal(vtx)) {
+            // Completely exclude 3-segment diagonals that are not a 45 degree angle.
+            if ((Math.abs(vtx1.getX() - vtx2.getX()) < 2) || (Math.abs(vtx1.getY() - vtx2.getY()) < 2)) {
+                return false;
+            }
         }
-        return false;
-        // // Determine reference points
-        // final Vertex ref1 = ls.get(0);
-        // final Vertex ref2 = ls.get(ls.size() - 1);
-        // // X directions
-        // if (ref2.getX() < ref1.getX()) {
-        // return v1.getX() <= ref2.getX();
-        // }
-        // if (ref2.getX() > ref1.getX()) {
-        // return v1.getX() >= ref2.getX();
-        // }
-        // // Y directions
-        // if (ref2.getY() < ref1.getY()) {
-        // return v1.getY() <= ref2.getY();
-        // }
-        // if (ref2.getY() > ref1.getY()) {
-        // return v1.getY() >= ref2.getY();
-        // }
-        // return true;
+        // Skip now if output would change
+        return this.isStraight(vtx);
     }
 
     private boolean isRedundant(final Vertex v1, final List<Vertex> vtx) {
@@ -525,17 +1630,106 @@ public class VectorGlyph {
 
     public void joinAdjacentVertices() {
         // Move from series of dots to use lazily joined lines
-        for (final Vertex v : this.vertices.values()) {
+        for (final Vertex v : this.vertices) {
             for (final Vertex neighbour : this.getAdjacent(v)) {
                 v.join(neighbour);
             }
         }
     }
 
+    private void merge(final List<Vertex> vtx) {
+        if (this.debugPrefix != null) {
+            // Illustrates process for debugging...
+            if (this.revision == 0) {
+                // Initial snapshot
+                this.writeDebugSvg(this.revision);
+            }
+            for (final Vertex v : vtx) {
+                v.setMark(true);
+            }
+        }
+        this.collapse(vtx);
+        if (this.debugPrefix != null) {
+            // Set up for monitoring w/ breakpoint
+            this.writeDebugSvg(this.revision + 1);
+            for (final Vertex v : vtx) {
+                v.setMark(false);
+            }
+        }
+    }
+
+    private void removeVertices(final Collection<Vertex> deleteMe) {
+        for (final Vertex v : deleteMe) {
+            this.vertices.remove((v.getY() * this.width) + v.getX());
+        }
+    }
+
+    /**
+     * Start tracking whether edits change the raster output.
+     */
+    private void resetChanges() {
+        this.flipped.clear();
+        this.changedPixels = 0;
+    }
+
+    private void touch(final Vertex v1, final Vertex v2) {
+        if ((this.changedEdges == null) || (v1 == v2)) {
+            return;
+        }
+        if ((this.changedEdgeCount + 2) > this.changedEdges.length) {
+            this.changedEdges = Arrays.copyOf(this.changedEdges, this.changedEdges.length * 2);
+        }
+        this.changedEdges[this.changedEdgeCount++] = v1.id;
+        this.changedEdges[this.changedEdgeCount++] = v2.id;
+    }
+
+    /**
+     * Write out the vertices and edges of this glyph in a compact binary form,
+     * which can be loaded with {@link #read(DataInput)}. Each edge is only written
+     * once, by the vertex with the lower id.
+     */
+    public void write(final DataOutput out) throws IOException {
+        out.writeShort(this.width);
+        out.writeShort(this.height);
+        out.writeInt(this.vertices.size());
+        for (final Vertex v : this.vertices) {
+            out.writeInt(v.id);
+        }
+        for (final Vertex v : this.vertices) {
+            int edges = 0;
+            for (final Vertex o : v.getNeighbours()) {
+                if (o.id >= v.id) {
+                    edges++;
+                }
+            }
+            out.writeShort(edges);
+            for (final Vertex o : v.getNeighbours()) {
+                if (o.id >= v.id) {
+                    out.writeInt(o.id);
+                }
+            }
+        }
+    }
+
     public void setDebug(final String substring) {
         this.debugPrefix = substring;
     }
 
+    /**
+     * @return True if the last call to combineEdges ran out of budget before the
+     *         glyph was fully simplified.
+     */
+    public boolean isOverBudget() {
+        return this.overBudget;
+    }
+
+    /**
+     * Receive counts of the work done while tracing.
+     */
+    public void setListener(final TraceListener listener) {
+        this.listener = listener;
+    }
+
     // Determine whether v1 this is the correct connection place for v2 vertex in
     // the list of vertices vtx.
     // v1 must be in vtx, and joined to v2.
@@ -603,13 +1797,16 @@ public class VectorGlyph {
 
     public RasterGlyph toRasterGlyph(final RasterOption option) {
         final RasterGlyph ret = new RasterGlyph(this.width, this.height);
-        for (final Vertex v : this.vertices.values()) {
+        for (final Vertex v : this.vertices) {
             if (option != RasterOption.LINES_ONLY) {
                 ret.setPixel(v.getX(), v.getY(), true);
             }
             if (option != RasterOption.DOTS_ONLY) {
                 for (final Vertex o : v.getNeighbours()) {
-                    ret.line(v.getX(), o.getX(), v.getY(), o.getY());
+                    // Each edge is in both vertices' neighbours, so only draw it from one end
+                    if (o.id >= v.id) {
+                        ret.line(v.getX(), o.getX(), v.getY(), o.getY());
+                    }
                 }
             }
         }
@@ -617,41 +1814,61 @@ public class VectorGlyph {
     }
 
     public String toSvg() {
-        final StringBuilder sb = new StringBuilder();
-        sb.append("<?xml version=\"1.0\" standalone=\"no\"?>\n");
-        sb.append("<svg width=\"" + (this.width * 10) + "\" height=\"" + (this.height * 10)
-                + "\" version=\"1.1\" xmlns=\"http://www.w3.org/2000/svg\">\n");
-        // Raster rendering as backing
-        final RasterGlyph glyph = this.toRasterGlyph(RasterOption.LINES_ONLY);
-        for (int y = 0; y < this.height; y++) {
-            for (int x = 0; x < this.width; x++) {
-                if (!glyph.getPixel(x, y)) {
-                    continue;
-                }
-                sb.append("    <rect x=\"" + ((x * 10) + 1) + "\" y=\"" + ((y * 10) + 1)
-                        + "\" width=\"8\" height=\"8\" stroke=\"none\" fill=\"#ccc\" stroke-width=\"0\"/>\n");
-            }
+        final StringWriter out = new StringWriter();
+        try (SvgWriter svg = new SvgWriter(out)) {
+            svg.startDocument(this.width * VectorGlyph.SVG_SCALE, this.height * VectorGlyph.SVG_SCALE);
+            this.writeSvg(svg);
+            svg.endDocument();
+        } catch (final IOException e) {
+            // StringWriter does not throw
+            throw new UncheckedIOException(e);
         }
+        return out.toString();
+    }
 
-        // Lines as SVG
-        for (final Vertex v : this.vertices.values()) {
+    public void writeAsSvg(final String dstFile) throws IOException {
+        try (SvgWriter svg = new SvgWriter(Files.newBufferedWriter(Paths.get(dstFile)))) {
+            svg.startDocument(this.width * VectorGlyph.SVG_SCALE, this.height * VectorGlyph.SVG_SCALE);
+            this.writeSvg(svg);
+            svg.endDocument();
+        }
+    }
+
+    private void writeDebugSvg(final int revision) {
+        try {
+            this.writeAsSvg(String.format("%s-%03d.svg", this.debugPrefix, revision));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Draw this glyph into an SVG document, {@link #SVG_SCALE} units per pixel.
+     */
+    public void writeSvg(final SvgWriter svg) throws IOException {
+        final int scale = VectorGlyph.SVG_SCALE;
+        // Raster rendering of the lines as backing. Pixel coverage already counts
+        // every line, so only a vertex's own dot needs to be taken off.
+        for (int i = 0; i < this.coverage.length; i++) {
+            final int lines = this.coverage[i] - (this.vertices.get(i) == null ? 0 : 1);
+            if (lines > 0) {
+                svg.rect(((i % this.width) * scale) + 1, ((i / this.width) * scale) + 1, scale - 2, scale - 2, "#ccc");
+            }
+        }
+        // Lines, once per edge
+        for (final Vertex v : this.vertices) {
             for (final Vertex o : v.getNeighbours()) {
-                sb.append("    <line x1=\"" + ((v.getX() * 10) + 5) + "\" x2=\"" + ((o.getX() * 10) + 5) + "\" y1=\""
-                        + ((v.getY() * 10) + 5) + "\" y2=\"" + ((o.getY() * 10) + 5)
-                        + "\" stroke=\"blue\" stroke-width=\"1\"/>");
+                if (v.compareTo(o) < 0) {
+                    svg.line((v.getX() * scale) + (scale / 2), (v.getY() * scale) + (scale / 2),
+                            (o.getX() * scale) + (scale / 2), (o.getY() * scale) + (scale / 2), "blue");
+                }
             }
         }
         // Vertices
-        for (final Vertex v : this.vertices.values()) {
-            String color = "red";
-            if (v.isMarked()) {
-                color = "yellow";
-            }
-            sb.append("    <circle cx=\"" + ((v.getX() * 10) + 5) + "\" cy=\"" + ((v.getY() * 10) + 5)
-                    + "\" r=\"1\" stroke=\"" + color + "\" fill=\"" + color + "\" stroke-width=\"1\"/>\n");
+        for (final Vertex v : this.vertices) {
+            svg.circle((v.getX() * scale) + (scale / 2), (v.getY() * scale) + (scale / 2), 1,
+                    v.isMarked() ? "yellow" : "red");
         }
-        sb.append("</svg>\n");
-        return sb.toString();
     }
 
 }
@@ -0,0 +1,215 @@
+package misc.fontscale.cli;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import misc.fontscale.BdfWriter;
+import misc.fontscale.Geometry;
+import misc.fontscale.GlyphMemo;
+import misc.fontscale.GlyphScaler;
+import misc.fontscale.GlyphSink;
+import misc.fontscale.IncrementalBuild;
+import misc.fontscale.ScaleEngine;
+import misc.fontscale.TraceBudget;
+import misc.fontscale.TraceCache;
+import misc.fontscale.TraceMetrics;
+import misc.fontscale.UnifontHexReader;
+import misc.fontscale.UnifontHexWriter;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Scale every glyph in a unifont .hex file, writing the result to a new .hex
+ * file, or a .bdf file if OUTPUT ends in ".bdf". Glyphs are streamed through,
+ * and traced on several threads at once.
+ *
+ * Several sizes can be given at once, separated by commas. Each glyph is then
+ * traced once and written to one file per size, named by inserting the size
+ * before the extension of OUTPUT, eg. "out-12x24.hex".
+ *
+ * Sizes are for narrow glyphs. Glyphs twice as wide as a narrow one, such as
+ * the 16-wide CJK glyphs in unifont, come out twice as wide.
+ */
+@Command(name = "batch", description = "Scale every glyph in a unifont .hex file")
+public class BatchCommand {
+    private static final int SLOWEST_GLYPHS = 10;
+
+    @Parameters(index = "0", paramLabel = "INPUT", description = "Source font, in .hex format")
+    String input;
+
+    @Parameters(index = "1", paramLabel = "SRC_GEOMETRY", description = "full, detect, or WxH+X+Y")
+    String srcGeometrySpec;
+
+    @Parameters(index = "2", paramLabel = "DIMENSIONS", description = "Size of output glyphs, WxH, or a comma-separated list of sizes. Wide glyphs come out wider, see --narrow-width")
+    String dimensions;
+
+    @Parameters(index = "3", paramLabel = "DST_GEOMETRY", description = "full, or WxH+X+Y, or a comma-separated list with one per size")
+    String dstGeometrySpec;
+
+    @Parameters(index = "4", paramLabel = "OUTPUT", description = "Output font, in .hex or .bdf format")
+    String output;
+
+    @Option(names = { "-j", "--workers" }, description = "Number of worker threads (default: one per core)")
+    int workers = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = "--queue", description = "Maximum number of glyphs in flight (default: 4 per worker). Glyphs which finish early wait for slower ones before them, up to 16 times this many")
+    int queueSize = 0;
+
+    @Option(names = "--narrow-width", description = "Width of a narrow source glyph (default: 8). Glyphs a whole number of times as wide are scaled onto a canvas that many times as wide, 0 to scale every glyph onto the same canvas")
+    int narrowWidth = 8;
+
+    @Option(names = "--trace-cache", description = "File to keep traced glyphs in, to re-use when scaling to other sizes")
+    String traceCache = null;
+
+    @Option(names = "--memo-size", description = "Memory to use for re-using duplicate glyphs, in MiB (default: 64, 0 to disable)")
+    int memoSize = 64;
+
+    @Option(names = "--font-name", description = "Family name for .bdf output (default: Fontscale)")
+    String fontName = "Fontscale";
+
+    @Option(names = "--descent", description = "Rows below the baseline for .bdf output (default: 1/8 of the height)")
+    int descent = -1;
+
+    @Option(names = "--max-trace-ms", description = "Time allowed to simplify each glyph, in milliseconds (default: 0, no limit)")
+    long maxTraceMillis = 0;
+
+    @Option(names = "--max-iterations", description = "Passes allowed to simplify each stroke of a glyph (default: 0, no limit)")
+    int maxIterations = 0;
+
+    @Option(names = "--metrics", description = "File to write time spent in each stage to, as JSON")
+    String metrics = null;
+
+    @Option(names = "--manifest", description = "File to record source and output hashes in, so that the next run only traces glyphs which changed. Needs .hex output")
+    String manifest = null;
+
+    /**
+     * Open the output for one target, in the format that the file name asks for.
+     */
+    private GlyphSink openOutput(final String output, final GlyphScaler.Target target, final List<Closeable> opened)
+            throws IOException {
+        final Path path = Paths.get(output);
+        if (output.endsWith(".bdf")) {
+            final Geometry canvas = target.getDstCanvas();
+            final BdfWriter ret = new BdfWriter(path, this.fontName, canvas.getWidth(), canvas.getHeight(),
+                    this.descent >= 0 ? this.descent : canvas.getHeight() / 8);
+            opened.add(ret);
+            return ret;
+        }
+        final UnifontHexWriter ret = new UnifontHexWriter(path);
+        opened.add(ret);
+        return ret;
+    }
+
+    /**
+     * Output file for one target, when there is more than one.
+     */
+    static String outputFor(final String output, final GlyphScaler.Target target) {
+        final String size = target.getDstCanvas().getWidth() + "x" + target.getDstCanvas().getHeight();
+        final int dot = output.lastIndexOf('.');
+        if ((dot <= 0) || (dot < output.lastIndexOf('/'))) {
+            return output + "-" + size;
+        }
+        return output.substring(0, dot) + "-" + size + output.substring(dot);
+    }
+
+    public void run() throws IOException {
+        final List<GlyphScaler.Target> targets = GlyphScaler.parseTargets(this.dimensions, this.dstGeometrySpec);
+        final GlyphScaler scaler = new GlyphScaler(this.srcGeometrySpec, targets);
+        final TraceBudget budget = new TraceBudget(this.maxTraceMillis, this.maxIterations);
+        scaler.setBudget(budget);
+        scaler.setNarrowWidth(this.narrowWidth);
+        GlyphMemo<GlyphScaler.Result> memo = null;
+        if (this.memoSize > 0) {
+            memo = new GlyphMemo<>(this.memoSize * 1024L * 1024L);
+            scaler.setMemo(memo);
+        }
+        TraceCache cache = null;
+        if (this.traceCache != null) {
+            cache = new TraceCache(Paths.get(this.traceCache));
+            scaler.setTraceCache(cache);
+        }
+        final long start = System.nanoTime();
+        final ScaleEngine engine = new ScaleEngine(this.workers,
+                this.queueSize > 0 ? this.queueSize : this.workers * 4);
+        final GlyphSink[] outs = new GlyphSink[targets.size()];
+        final List<Closeable> opened = new ArrayList<>();
+        // Metrics are also needed to find out which glyphs ran out of budget
+        final TraceMetrics metrics = (this.metrics == null) && budget.isUnlimited() ? null
+                : new TraceMetrics(BatchCommand.SLOWEST_GLYPHS);
+        final List<Path> outputs = new ArrayList<>();
+        for (final GlyphScaler.Target target : targets) {
+            outputs.add(Paths.get(targets.size() == 1 ? this.output : BatchCommand.outputFor(this.output, target)));
+        }
+        IncrementalBuild build = null;
+        int count;
+        try {
+            if (this.manifest != null) {
+                if (this.output.endsWith(".bdf")) {
+                    throw new IllegalArgumentException("--manifest needs .hex output, to copy unchanged glyphs from");
+                }
+                // Reads the old output, so must come before it is overwritten
+                build = new IncrementalBuild(Paths.get(this.manifest), String.join(" ", this.srcGeometrySpec,
+                        this.dimensions, this.dstGeometrySpec, Long.toString(this.maxTraceMillis),
+                        Integer.toString(this.maxIterations), Integer.toString(this.narrowWidth)), targets,
+                        outputs);
+            }
+            try (UnifontHexReader in = new UnifontHexReader(Paths.get(this.input))) {
+                for (int i = 0; i < outs.length; i++) {
+                    outs[i] = this.openOutput(outputs.get(i).toString(), targets.get(i), opened);
+                }
+                count = (metrics == null) && (build == null) ? engine.run(in, scaler, outs)
+                        : engine.run(in, scaler, metrics, build, outs);
+            } finally {
+                for (final Closeable out : opened) {
+                    out.close();
+                }
+            }
+            if (build != null) {
+                build.finish();
+            }
+        } finally {
+            if (build != null) {
+                build.close();
+            }
+            if (cache != null) {
+                cache.close();
+            }
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("Scaled %d glyphs to %d size(s) in %.3f s (%.1f glyphs/sec)", count,
+                targets.size(), seconds, seconds > 0 ? count / seconds : 0));
+        if (memo != null) {
+            System.out.println(String.format("Duplicate glyphs: %d hits, %d misses", memo.getHits(), memo.getMisses()));
+        }
+        if (cache != null) {
+            System.out.println(String.format("Trace cache: %d hits, %d misses", cache.getHits(), cache.getMisses()));
+        }
+        if (build != null) {
+            System.out.println(String.format("Incremental build: %d glyphs unchanged, %d traced", build.getReused(),
+                    build.getRebuilt()));
+        }
+        if ((metrics != null) && !metrics.getOverBudget().isEmpty()) {
+            System.out.println(String.format("Ran out of budget on %d glyph(s), which were only partly simplified",
+                    metrics.getOverBudget().size()));
+            if (this.metrics == null) {
+                for (final int codepoint : metrics.getOverBudget()) {
+                    System.out.println(String.format("Over budget U+%04X", codepoint));
+                }
+            }
+        }
+        if (this.metrics != null) {
+            try (Writer out = Files.newBufferedWriter(Paths.get(this.metrics), StandardCharsets.UTF_8)) {
+                metrics.writeJson(out);
+            }
+            System.out.print(metrics.summary());
+        }
+    }
+}
@@ -6,9 +6,11 @@ import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.List;
 
-import misc.fontscale.Geometry;
+import misc.fontscale.GlyphScaler;
 import misc.fontscale.RasterGlyph;
+import misc.fontscale.UnifontHexFont;
 import misc.fontscale.VectorGlyph;
 import picocli.CommandLine;
 
@@ -19,40 +21,48 @@ public class FontscaleApp {
         System.out.println(Arrays.asList(args));
         if(args[0].equals("scale")) {
             String hex = args[1];
-            String srcGeometrySpec = args[2];
-            String dimensions = args[3];
-            String dstGeometrySpec = args[4];
-            String dstFile = args[5];
-            RasterGlyph originalRaster = RasterGlyph.fromUnifontHex(args[1]);
-            VectorGlyph originalVector = originalRaster.toVectorGlyph();
-            originalVector.joinAdjacentVertices();
-            originalVector.disconnectDottedOutline();
-            originalVector.disconnectFilledAreas();
-            originalVector.combineEdges();
-            // Geometry work..
-            Geometry srcGeometry = originalVector.getGeometry();
-            if(srcGeometrySpec.equals("detect")) {
-                srcGeometry = originalVector.getInternalGeometry();
-            } else if(!srcGeometrySpec.equals("full")) {
-                srcGeometry = new Geometry(srcGeometrySpec);
+            RasterGlyph originalRaster = RasterGlyph.fromUnifontHex(hex);
+            scaleOne(originalRaster, args[2], args[3], args[4], args[5]);
+            return;
+        } else if(args[0].equals("review")) {
+            // Same as scale, but looks the glyph up in a font, eg. "review unifont.hex 0041 ..."
+            try (UnifontHexFont font = new UnifontHexFont(Paths.get(args[1]))) {
+                RasterGlyph originalRaster = font.getGlyph(Integer.parseInt(args[2], 16));
+                if (originalRaster == null) {
+                    System.err.println("No glyph for " + args[2] + " in " + args[1]);
+                    System.exit(1);
+                }
+                scaleOne(originalRaster, args[3], args[4], args[5], args[6]);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
             }
-            Geometry dstCanvas = new Geometry(dimensions);
-            Geometry dstGeometry = dstCanvas;
-            if(!dstGeometrySpec.equals("full")) {
-                dstGeometry = new Geometry(dstGeometrySpec);
+            return;
+        } else if(args[0].equals("batch")) {
+            BatchCommand batch = CommandLine.populateCommand(new BatchCommand(), Arrays.copyOfRange(args, 1, args.length));
+            try {
+                batch.run();
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
             }
-            // Do the scaling..
-            VectorGlyph newVector = new VectorGlyph(dstCanvas.getWidth(), dstCanvas.getHeight());
-            newVector.copyFrom(originalVector, srcGeometry, dstGeometry);
-            RasterGlyph newRaster = newVector.toRasterGlyph();
+            return;
+        } else if(args[0].equals("sprites")) {
+            SpritesCommand sprites = CommandLine.populateCommand(new SpritesCommand(), Arrays.copyOfRange(args, 1, args.length));
             try {
-                Files.write(Paths.get(dstFile + "-unscaled.svg"), originalVector.toSvg().getBytes());
-                Files.write(Paths.get(dstFile + "-scaled.svg"), newVector.toSvg().getBytes());
-                Files.write(Paths.get(dstFile + "-scaled.txt"), newRaster.toString().getBytes());
-                newRaster.writeAsPbm(dstFile);
+                sprites.run();
             } catch (IOException e) {
-                // TODO Auto-generated catch block
                 e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        } else if(args[0].equals("serve")) {
+            ServeCommand serve = CommandLine.populateCommand(new ServeCommand(), Arrays.copyOfRange(args, 1, args.length));
+            try {
+                serve.run();
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace();
+                System.exit(1);
             }
             return;
         } else if(args[0] == "debug") {
@@ -75,4 +85,26 @@ public class FontscaleApp {
         }
         throw new RuntimeException("Not implemented..");
     }
+
+    private static void scaleOne(RasterGlyph originalRaster, String srcGeometrySpec, String dimensions,
+            String dstGeometrySpec, String dstFile) {
+        VectorGlyph originalVector = GlyphScaler.trace(originalRaster);
+        // Do the scaling, once per size if there are several
+        List<GlyphScaler.Target> targets = GlyphScaler.parseTargets(dimensions, dstGeometrySpec);
+        GlyphScaler scaler = new GlyphScaler(srcGeometrySpec, targets);
+        try {
+            originalVector.writeAsSvg(dstFile + "-unscaled.svg");
+            for (GlyphScaler.Target target : targets) {
+                VectorGlyph newVector = scaler.scale(originalVector, target);
+                RasterGlyph newRaster = newVector.toRasterGlyph();
+                String targetFile = targets.size() == 1 ? dstFile : BatchCommand.outputFor(dstFile, target);
+                newVector.writeAsSvg(targetFile + "-scaled.svg");
+                Files.write(Paths.get(targetFile + "-scaled.txt"), newRaster.toString().getBytes());
+                newRaster.writeAsPbm(targetFile);
+            }
+        } catch (IOException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+        }
+    }
 }
@@ -0,0 +1,63 @@
+package misc.fontscale.cli;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+
+import misc.fontscale.GlyphServer;
+import misc.fontscale.TraceBudget;
+import misc.fontscale.TraceCache;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Keep a JVM running to scale glyphs on request over HTTP, for tools which
+ * would otherwise start a new process for every glyph. See
+ * {@link GlyphServer} for the protocol. Runs until killed.
+ */
+@Command(name = "serve", description = "Scale glyphs on request over HTTP")
+public class ServeCommand {
+    @Option(names = "--bind", description = "Address to listen on (default: 127.0.0.1)")
+    String bind = "127.0.0.1";
+
+    @Option(names = "--port", description = "Port to listen on (default: 8080)")
+    int port = 8080;
+
+    @Option(names = { "-j", "--workers" }, description = "Number of worker threads (default: one per core)")
+    int workers = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = "--queue", description = "Requests to hold while all workers are busy, before turning more away (default: 16 per worker)")
+    int queueSize = 0;
+
+    @Option(names = "--trace-cache", description = "File to keep traced glyphs in, to re-use after a restart")
+    String traceCache = null;
+
+    @Option(names = "--memo-size", description = "Memory to use for re-using traces between requests, in MiB (default: 64)")
+    int memoSize = 64;
+
+    @Option(names = "--max-trace-ms", description = "Time allowed to simplify each glyph, in milliseconds, or 0 for no limit (default: 1000)")
+    long maxTraceMillis = GlyphServer.DEFAULT_MAX_TRACE_MILLIS;
+
+    public void run() throws IOException, InterruptedException {
+        final TraceCache cache = this.traceCache == null ? null : new TraceCache(Paths.get(this.traceCache));
+        final GlyphServer server = new GlyphServer(new InetSocketAddress(this.bind, this.port), this.workers,
+                this.queueSize > 0 ? this.queueSize : this.workers * 16, this.memoSize * 1024L * 1024L);
+        server.setBudget(new TraceBudget(this.maxTraceMillis, 0));
+        server.setTraceCache(cache);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            if (cache != null) {
+                try {
+                    cache.close();
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }));
+        server.start();
+        System.out.println(String.format("Listening on http://%s:%d/", this.bind, server.getPort()));
+        // Server threads are daemons, so keep the JVM up until it is killed
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,65 @@
+package misc.fontscale.cli;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.AbstractMap.SimpleImmutableEntry;
+
+import misc.fontscale.Geometry;
+import misc.fontscale.GlyphScaler;
+import misc.fontscale.ScaleEngine;
+import misc.fontscale.SvgSpriteSheet;
+import misc.fontscale.TraceCache;
+import misc.fontscale.UnifontHexReader;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Trace every glyph in a unifont .hex file, and draw the traces into one SVG
+ * sprite sheet for review.
+ */
+@Command(name = "sprites", description = "Draw the trace of every glyph in a unifont .hex file into one SVG")
+public class SpritesCommand {
+    @Parameters(index = "0", paramLabel = "INPUT", description = "Source font, in .hex format")
+    String input;
+
+    @Parameters(index = "1", paramLabel = "OUTPUT", description = "Sprite sheet, in .svg format")
+    String output;
+
+    @Option(names = { "-j", "--workers" }, description = "Number of worker threads (default: one per core)")
+    int workers = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = "--columns", description = "Number of cells in each row (default: 32)")
+    int columns = 32;
+
+    @Option(names = "--cell", description = "Size of each cell, WxH. Wider glyphs take up several cells (default: 8x16)")
+    String cell = "8x16";
+
+    @Option(names = "--trace-cache", description = "File to keep traced glyphs in, to re-use when scaling to other sizes")
+    String traceCache = null;
+
+    public void run() throws IOException {
+        final Geometry cellGeometry = new Geometry(this.cell);
+        // Source geometry and target don't matter, this only traces
+        final GlyphScaler scaler = new GlyphScaler("full", this.cell, "full");
+        TraceCache cache = null;
+        if (this.traceCache != null) {
+            cache = new TraceCache(Paths.get(this.traceCache));
+            scaler.setTraceCache(cache);
+        }
+        final ScaleEngine engine = new ScaleEngine(this.workers);
+        int count;
+        try (UnifontHexReader in = new UnifontHexReader(Paths.get(this.input));
+                SvgSpriteSheet out = new SvgSpriteSheet(Paths.get(this.output), this.columns,
+                        cellGeometry.getWidth(), cellGeometry.getHeight())) {
+            count = engine.run(in,
+                    glyph -> new SimpleImmutableEntry<>(glyph.getCodepoint(), scaler.traceCached(glyph.getRaster())),
+                    traced -> out.add(traced.getKey(), traced.getValue()));
+        } finally {
+            if (cache != null) {
+                cache.close();
+            }
+        }
+        System.out.println(String.format("Drew %d glyphs", count));
+    }
+}
@@ -0,0 +1,57 @@
+package misc.fontscale;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+public class BdfWriterTest {
+    @Test
+    void testWrite() throws Exception {
+        Path path = Files.createTempFile("font", ".bdf");
+        try {
+            RasterGlyph foo = new RasterGlyph(12, 3);
+            foo.line(0, 11, 0, 0);
+            foo.setPixel(5, 2, true);
+            try (BdfWriter out = new BdfWriter(path, "Test", 12, 3, 1)) {
+                out.write(new FontGlyph(0x41, foo));
+                out.write(new FontGlyph(0x1F600, new RasterGlyph(12, 3)));
+            }
+            String bdf = new String(Files.readAllBytes(path), StandardCharsets.US_ASCII);
+            assertEquals("STARTFONT 2.1\n" +
+                    "FONT -misc-Test-Medium-R-Normal--3-30-72-72-C-120-ISO10646-1\n" +
+                    "SIZE 3 72 72\n" +
+                    "FONTBOUNDINGBOX 12 3 0 -1\n" +
+                    "STARTPROPERTIES 2\n" +
+                    "FONT_ASCENT 2\n" +
+                    "FONT_DESCENT 1\n" +
+                    "ENDPROPERTIES\n" +
+                    "CHARS 0000000002\n" +
+                    "STARTCHAR U+0041\n" +
+                    "ENCODING 65\n" +
+                    "SWIDTH 4000 0\n" +
+                    "DWIDTH 12 0\n" +
+                    "BBX 12 3 0 -1\n" +
+                    "BITMAP\n" +
+                    "FFF0\n" +
+                    "0000\n" +
+                    "0400\n" +
+                    "ENDCHAR\n" +
+                    "STARTCHAR U+1F600\n" +
+                    "ENCODING 128512\n" +
+                    "SWIDTH 4000 0\n" +
+                    "DWIDTH 12 0\n" +
+                    "BBX 12 3 0 -1\n" +
+                    "BITMAP\n" +
+                    "0000\n" +
+                    "0000\n" +
+                    "0000\n" +
+                    "ENDCHAR\n" +
+                    "ENDFONT\n", bdf);
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package misc.fontscale;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class GeometryTest {
+
+    @Test
+    void testPack() {
+        int point = Geometry.pack(11, 23);
+        assertEquals(11, Geometry.unpackX(point));
+        assertEquals(23, Geometry.unpackY(point));
+        point = Geometry.pack(-1, -2);
+        assertEquals(-1, Geometry.unpackX(point));
+        assertEquals(-2, Geometry.unpackY(point));
+    }
+
+    @Test
+    void testTransformMatchesTransformPoint() {
+        String[][] pairs = { { "16x16", "12x24" }, { "14x13+1+2", "11x20+0+1" }, { "1x1+7+7", "12x24" },
+                { "16x15+0+1", "8x8+2+3" } };
+        for (String[] pair : pairs) {
+            Geometry src = new Geometry(pair[0]);
+            Geometry dst = new Geometry(pair[1]);
+            Geometry.Transform transform = src.transformTo(dst);
+            // Includes points outside the source, which aren't in the tables
+            for (int y = -2; y < 20; y++) {
+                for (int x = -2; x < 20; x++) {
+                    DiscretePoint expected = src.transformPoint(x, y, dst);
+                    int actual = transform.transform(x, y);
+                    assertEquals(expected.getX(), Geometry.unpackX(actual), pair[0] + " " + x);
+                    assertEquals(expected.getY(), Geometry.unpackY(actual), pair[0] + " " + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testTransformIsShared() {
+        GlyphScaler.Target target = new GlyphScaler.Target("12x24", "full");
+        Geometry.Transform transform = target.getTransform(new Geometry("14x13+1+2"));
+        assertSame(transform, target.getTransform(new Geometry("14x13+1+2")));
+        assertNotSame(transform, target.getTransform(new Geometry("14x13+1+1")));
+        assertEquals(new Geometry(12, 24), transform.getDst());
+    }
+}
@@ -0,0 +1,44 @@
+package misc.fontscale;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class GlyphMemoTest {
+    final String AT_SYMBOL = "000000001C224A565252524E201E0000";
+    final String EMPTY_SYMBOL = "00000000000000000000000000000000";
+    final String NUL = "AAAA00018000000180004A51EA505A51C99E0001800000018000000180005555";
+
+    @Test
+    void testHitsAndMisses() {
+        GlyphMemo<String> memo = new GlyphMemo<>(1024 * 1024);
+        RasterGlyph foo = RasterGlyph.fromUnifontHex(AT_SYMBOL);
+        assertNull(memo.get(foo));
+        memo.put(foo, "foo", 10);
+        // Key is copied, so a later change to the glyph doesn't matter
+        foo.clear();
+        assertNull(memo.get(foo));
+        assertEquals("foo", memo.get(RasterGlyph.fromUnifontHex(AT_SYMBOL)));
+        assertEquals(1, memo.getHits());
+        assertEquals(2, memo.getMisses());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        RasterGlyph foo = RasterGlyph.fromUnifontHex(AT_SYMBOL);
+        RasterGlyph bar = RasterGlyph.fromUnifontHex(EMPTY_SYMBOL);
+        RasterGlyph baz = RasterGlyph.fromUnifontHex(NUL);
+        long each = GlyphMemo.sizeOf(foo) + 100;
+        GlyphMemo<String> memo = new GlyphMemo<>(each * 2);
+        memo.put(foo, "foo", 100);
+        memo.put(bar, "bar", 100);
+        assertEquals("foo", memo.get(foo));
+        memo.put(baz, "baz", 100);
+        assertEquals(2, memo.size());
+        assertTrue(memo.getBytes() <= each * 2);
+        assertNull(memo.get(bar));
+        assertEquals("foo", memo.get(foo));
+        // Too big to keep at all
+        memo.put(bar, "bar", each * 3);
+        assertNull(memo.get(bar));
+    }
+}
@@ -0,0 +1,92 @@
+package misc.fontscale;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class GlyphServerTest {
+    final String AT_SYMBOL = "000000001C224A565252524E201E0000";
+
+    @Test
+    void testScale() throws Exception {
+        try (GlyphServer server = new GlyphServer(new InetSocketAddress("127.0.0.1", 0), 2, 2, 1024 * 1024)) {
+            server.start();
+            String base = "http://127.0.0.1:" + server.getPort();
+            RasterGlyph expected = new GlyphScaler("detect", "12x24", "full").scale(RasterGlyph.fromUnifontHex(AT_SYMBOL));
+            assertEquals(expected.toUnifontHex() + "\n",
+                    get(base + "/scale?hex=" + AT_SYMBOL + "&size=12x24&format=hex", 200));
+            // Same again, from a form, as a PBM
+            HttpURLConnection conn = (HttpURLConnection) new URL(base + "/scale").openConnection();
+            conn.setDoOutput(true);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(("hex=" + AT_SYMBOL + "&size=12x24").getBytes(StandardCharsets.US_ASCII));
+            }
+            assertEquals(200, conn.getResponseCode());
+            assertArrayEquals(expected.toPbm(), readAll(conn.getInputStream()));
+            // Bad requests
+            assertTrue(get(base + "/scale?size=12x24", 400).contains("hex"));
+            assertTrue(get(base + "/scale?hex=XYZW", 400).contains("hexadecimal"));
+            assertTrue(get(base + "/scale?hex=" + AT_SYMBOL + "&format=gif", 400).contains("gif"));
+            assertTrue(get(base + "/scale?hex=" + AT_SYMBOL + "&size=60000x60000", 400).contains("too big"));
+            assertTrue(get(base + "/scale?hex=" + AT_SYMBOL + "&src=1000000000x1000000000%2B0%2B0", 400)
+                    .contains("too big"));
+            assertTrue(get(base + "/scale?hex=" + AT_SYMBOL + "&dst=8x8%2B1000000000%2B0", 400).contains("too big"));
+            assertTrue(get(base + "/scale?hex=" + new String(new char[2048]).replace('\0', '0'), 400)
+                    .contains("too big"));
+            // Badly encoded form, which the HTTP server itself lets through
+            conn = (HttpURLConnection) new URL(base + "/scale").openConnection();
+            conn.setDoOutput(true);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write("hex=%zz".getBytes(StandardCharsets.US_ASCII));
+            }
+            assertEquals(400, conn.getResponseCode());
+            String stats = get(base + "/stats", 200);
+            assertTrue(stats.contains("\"requests\": 10"));
+            // Bad input is the client's fault, not an error in the server
+            assertTrue(stats.contains("\"badRequests\": 8"));
+            assertTrue(stats.contains("\"errors\": 0"));
+            // Traced once, and re-used for the second request
+            assertTrue(stats.contains("\"traces\": {\"hits\": 1, \"misses\": 1}"));
+        }
+    }
+
+    @Test
+    void testPartialTracesNotRemembered() throws Exception {
+        try (GlyphServer server = new GlyphServer(new InetSocketAddress("127.0.0.1", 0), 1, 2, 1024 * 1024)) {
+            // Not enough passes to simplify it fully
+            server.setBudget(new TraceBudget(0, 1));
+            server.start();
+            String url = "http://127.0.0.1:" + server.getPort() + "/scale?hex=" + AT_SYMBOL + "&format=hex";
+            get(url, 200);
+            get(url, 200);
+            assertTrue(get("http://127.0.0.1:" + server.getPort() + "/stats", 200)
+                    .contains("\"traces\": {\"hits\": 0, \"misses\": 2}"));
+        }
+    }
+
+    private String get(String url, int status) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        assertEquals(status, conn.getResponseCode());
+        InputStream in = status == 200 ? conn.getInputStream() : conn.getErrorStream();
+        return new String(readAll(in), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            ret.write(buf, 0, n);
+        }
+        in.close();
+        return ret.toByteArray();
+    }
+}
@@ -0,0 +1,89 @@
+package misc.fontscale;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class IncrementalBuildTest {
+    final List<String> HEX = new ArrayList<>(Arrays.asList(
+            "000000001C224A565252524E201E0000",
+            "00000000182442464A52624224180000",
+            "0000000010101010FE10101010000000",
+            "00000000000000000000007E00000000"));
+
+    @Test
+    void testOnlyChangedGlyphsAreTraced() throws Exception {
+        Path dir = Files.createTempDirectory("incremental");
+        Path manifest = dir.resolve("font.manifest");
+        Path output = dir.resolve("font.hex");
+        GlyphScaler scaler = new GlyphScaler("detect", "12x24", "full");
+        IncrementalBuild build = build(scaler, "detect", manifest, output);
+        assertEquals(0, build.getReused());
+        assertEquals(4, build.getRebuilt());
+        List<String> first = Files.readAllLines(output);
+        // Nothing changed
+        build = build(scaler, "detect", manifest, output);
+        assertEquals(4, build.getReused());
+        assertEquals(first, Files.readAllLines(output));
+        // One glyph edited in the source, and one in the output by hand
+        HEX.set(1, "00000000000000000000000000000000");
+        List<String> edited = new ArrayList<>(first);
+        edited.set(2, "0002:" + edited.get(2).substring(5).replace('0', 'F'));
+        Files.write(output, edited);
+        build = build(scaler, "detect", manifest, output);
+        assertEquals(2, build.getReused());
+        assertEquals(2, build.getRebuilt());
+        List<String> expected = new ArrayList<>(first);
+        expected.set(1, "0001:" + scaler.scale(RasterGlyph.fromUnifontHex(HEX.get(1))).toUnifontHex());
+        assertEquals(expected, Files.readAllLines(output));
+        // Different settings throw everything away
+        build = build(new GlyphScaler("full", "12x24", "full"), "full", manifest, output);
+        assertEquals(0, build.getReused());
+        // Not replaced unless finished
+        String before = new String(Files.readAllBytes(manifest), StandardCharsets.US_ASCII);
+        new IncrementalBuild(manifest, "other", scaler.getTargets(), Collections.singletonList(output)).close();
+        assertEquals(before, new String(Files.readAllBytes(manifest), StandardCharsets.US_ASCII));
+        assertFalse(Files.exists(dir.resolve("font.manifest.tmp")));
+    }
+
+    @Test
+    void testPartialTracesAreTracedAgain() throws Exception {
+        Path dir = Files.createTempDirectory("incremental");
+        Path manifest = dir.resolve("font.manifest");
+        Path output = dir.resolve("font.hex");
+        GlyphScaler scaler = new GlyphScaler("detect", "12x24", "full");
+        scaler.setBudget(new TraceBudget(0, 3));
+        IncrementalBuild build = build(scaler, "detect", manifest, output);
+        assertEquals(4, build.getRebuilt());
+        // Only the glyphs which fit in the budget are remembered
+        build = build(scaler, "detect", manifest, output);
+        assertEquals(2, build.getReused());
+        assertEquals(2, build.getRebuilt());
+        // Header, settings and the two complete glyphs
+        List<String> lines = Files.readAllLines(manifest);
+        assertEquals(4, lines.size());
+    }
+
+    private IncrementalBuild build(GlyphScaler scaler, String settings, Path manifest, Path output) throws Exception {
+        Iterator<String> it = HEX.iterator();
+        int[] codepoint = { 0 };
+        try (IncrementalBuild build = new IncrementalBuild(manifest, settings, scaler.getTargets(),
+                Collections.singletonList(output))) {
+            try (UnifontHexWriter out = new UnifontHexWriter(output)) {
+                new ScaleEngine(2).run(
+                        () -> it.hasNext() ? new FontGlyph(codepoint[0]++, RasterGlyph.fromUnifontHex(it.next())) : null,
+                        scaler, null, build, out);
+            }
+            build.finish();
+            return build;
+        }
+    }
+}
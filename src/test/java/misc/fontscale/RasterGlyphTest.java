@@ -62,6 +62,27 @@ public class RasterGlyphTest {
                 "-#-#-#-#-#-#-#-#\n", foo.toString());
     }
     
+    @Test
+    void testToUnifontHex() {
+        assertEquals(AT_SYMBOL, RasterGlyph.fromUnifontHex(AT_SYMBOL).toUnifontHex());
+        assertEquals(NUL, RasterGlyph.fromUnifontHex(NUL).toUnifontHex());
+        // Rows are padded out to whole bytes
+        RasterGlyph foo = new RasterGlyph(3, 2);
+        foo.line(0, 2, 1, 1);
+        assertEquals("00E0", foo.toUnifontHex());
+    }
+
+    @Test
+    void testFromUnifontHexAnySize() {
+        RasterGlyph foo = new RasterGlyph(12, 3);
+        foo.line(0, 11, 0, 2);
+        foo.setPixel(11, 0, true);
+        assertEquals(foo, RasterGlyph.fromUnifontHex(foo.toUnifontHex(), 12, 3));
+        // Rows are padded, so wouldn't decode at the unifont height
+        assertNotEquals(foo, RasterGlyph.fromUnifontHex(foo.toUnifontHex()));
+        assertThrows(IllegalArgumentException.class, () -> RasterGlyph.fromUnifontHex("00", 12, 3));
+    }
+
     @Test
     void testEquals() {
         RasterGlyph foo = RasterGlyph.fromUnifontHex(NUL);
@@ -77,6 +98,70 @@ public class RasterGlyphTest {
         assertFalse(foo.equals(baz));
     }
     
+    @Test
+    void testHashCode() {
+        RasterGlyph foo = RasterGlyph.fromUnifontHex(AT_SYMBOL);
+        RasterGlyph bar = new RasterGlyph(foo);
+        assertEquals(foo.hashCode(), bar.hashCode());
+        bar.clear();
+        assertEquals(RasterGlyph.fromUnifontHex(EMPTY_SYMBOL).hashCode(), bar.hashCode());
+    }
+
+    @Test
+    void testInvert() {
+        RasterGlyph foo = new RasterGlyph(3, 2);
+        foo.setPixel(1, 1, true);
+        foo.invert();
+        assertEquals("###\n" +
+                "#-#\n", foo.toString());
+        // Padding bits are not set, so this is still comparable
+        RasterGlyph bar = new RasterGlyph(3, 2);
+        bar.line(0, 2, 0, 0);
+        bar.setPixel(0, 1, true);
+        bar.setPixel(2, 1, true);
+        assertEquals(bar, foo);
+        // No pixels in a row at all
+        RasterGlyph empty = new RasterGlyph(0, 4);
+        empty.invert();
+        assertEquals(new RasterGlyph(0, 4), empty);
+    }
+
+    @Test
+    void testWide() {
+        // Wider than one word per row
+        RasterGlyph foo = new RasterGlyph(70, 2);
+        foo.line(60, 69, 1, 1);
+        foo.setPixel(0, 0, true);
+        assertTrue(foo.getPixel(63, 1));
+        assertTrue(foo.getPixel(64, 1));
+        assertFalse(foo.getPixel(64, 0));
+        foo.invert();
+        assertFalse(foo.getPixel(0, 0));
+        assertTrue(foo.getPixel(69, 0));
+        assertEquals(69 + 60, foo.toVectorGlyph().getVertices().size());
+    }
+
+    @Test
+    void testLineMatchesBresenham() {
+        // Every line between points on a grid which straddles a word boundary
+        int[] xs = { 0, 1, 5, 62, 63, 64, 65, 129, 131 };
+        int[] ys = { 0, 1, 3, 7, 8 };
+        for (int x0 : xs) {
+            for (int y0 : ys) {
+                for (int x1 : xs) {
+                    for (int y1 : ys) {
+                        RasterGlyph expected = new RasterGlyph(132, 9);
+                        Bresenham.line(x0, x1, y0, y1, (x, y) -> expected.setPixel(x, y, true));
+                        RasterGlyph actual = new RasterGlyph(132, 9);
+                        actual.line(x0, x1, y0, y1);
+                        assertEquals(expected, actual, x0 + "," + y0 + " to " + x1 + "," + y1);
+                    }
+                }
+            }
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> new RasterGlyph(3, 2).line(0, 3, 0, 0));
+    }
+
     @Test
     void testLineVertical() {
         RasterGlyph foo = new RasterGlyph(8, 8);
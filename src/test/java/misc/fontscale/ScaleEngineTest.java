@@ -0,0 +1,124 @@
+package misc.fontscale;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class ScaleEngineTest {
+    final List<String> HEX = Arrays.asList(
+            "000000001C224A565252524E201E0000",
+            "AAAA00018000000180004A51EA505A51C99E0001800000018000000180005555",
+            "00000000000000000000000000000000",
+            "00000000182442464A52624224180000",
+            "0000000010101010FE10101010000000",
+            "00000000000000000000007E00000000");
+
+    @Test
+    void testSameAsSingleThreaded() throws Exception {
+        GlyphScaler scaler = new GlyphScaler("detect", "12x24", "full");
+        List<FontGlyph> expected = scaleAll(new ScaleEngine(1), scaler);
+        List<FontGlyph> actual = scaleAll(new ScaleEngine(3, 3), scaler);
+        assertEquals(HEX.size(), actual.size());
+        for (int i = 0; i < HEX.size(); i++) {
+            assertEquals(i, actual.get(i).getCodepoint());
+            assertEquals(expected.get(i).getRaster(), actual.get(i).getRaster());
+        }
+    }
+
+    @Test
+    void testSlowGlyphDoesNotHoldUpOthers() throws Exception {
+        // The first glyph only finishes once every other glyph has, which can
+        // only happen if the others are traced while it is still running
+        int others = 20;
+        CountDownLatch othersDone = new CountDownLatch(others);
+        int[] read = { 0 };
+        List<Integer> written = new ArrayList<>();
+        int count = new ScaleEngine(2, 2).run(
+                () -> read[0] <= others ? new FontGlyph(read[0]++, new RasterGlyph(1, 1)) : null,
+                glyph -> {
+                    if (glyph.getCodepoint() == 0) {
+                        try {
+                            assertTrue(othersDone.await(10, TimeUnit.SECONDS));
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    } else {
+                        othersDone.countDown();
+                    }
+                    return glyph.getCodepoint();
+                }, written::add);
+        assertEquals(others + 1, count);
+        for (int i = 0; i <= others; i++) {
+            assertEquals(i, written.get(i).intValue());
+        }
+    }
+
+    @Test
+    void testFanOut() throws Exception {
+        GlyphScaler scaler = new GlyphScaler("detect", GlyphScaler.parseTargets("12x24,16x32", "full"));
+        List<FontGlyph> small = new ArrayList<>();
+        List<FontGlyph> large = new ArrayList<>();
+        Iterator<String> it = HEX.iterator();
+        int[] codepoint = { 0 };
+        int count = new ScaleEngine(2).run(
+                () -> it.hasNext() ? new FontGlyph(codepoint[0]++, RasterGlyph.fromUnifontHex(it.next())) : null,
+                scaler, small::add, large::add);
+        assertEquals(HEX.size(), count);
+        List<FontGlyph> expectedSmall = scaleAll(new ScaleEngine(1), new GlyphScaler("detect", "12x24", "full"));
+        List<FontGlyph> expectedLarge = scaleAll(new ScaleEngine(1), new GlyphScaler("detect", "16x32", "full"));
+        for (int i = 0; i < HEX.size(); i++) {
+            assertEquals(expectedSmall.get(i).getRaster(), small.get(i).getRaster());
+            assertEquals(expectedLarge.get(i).getRaster(), large.get(i).getRaster());
+            assertEquals(32, large.get(i).getRaster().getHeight());
+        }
+    }
+
+    @Test
+    void testMetrics() throws Exception {
+        GlyphScaler scaler = new GlyphScaler("detect", "12x24", "full");
+        TraceMetrics metrics = new TraceMetrics(2);
+        List<FontGlyph> actual = new ArrayList<>();
+        Iterator<String> it = HEX.iterator();
+        int[] codepoint = { 0 };
+        new ScaleEngine(2).run(
+                () -> it.hasNext() ? new FontGlyph(codepoint[0]++, RasterGlyph.fromUnifontHex(it.next())) : null,
+                scaler, metrics, actual::add);
+        List<FontGlyph> expected = scaleAll(new ScaleEngine(1), scaler);
+        for (int i = 0; i < HEX.size(); i++) {
+            assertEquals(expected.get(i).getRaster(), actual.get(i).getRaster());
+        }
+        assertEquals(HEX.size(), metrics.getGlyphs());
+        assertTrue(metrics.getCount(TraceListener.Counter.CANDIDATES_ENUMERATED) > 0);
+        assertTrue(metrics.getCount(TraceListener.Counter.COMBINE_ITERATIONS) >= HEX.size());
+        assertTrue(metrics.getNanos(TraceListener.Stage.COMBINE_EDGES) > 0);
+        assertEquals(2, metrics.getSlowest().size());
+        assertTrue(metrics.getSlowest().get(0).getTotalNanos() >= metrics.getSlowest().get(1).getTotalNanos());
+        StringWriter json = new StringWriter();
+        metrics.writeJson(json);
+        assertTrue(json.toString().startsWith("{\n  \"glyphs\": 6,"));
+        assertTrue(json.toString().contains("\"combineEdges\": {\"totalMs\": "));
+        assertTrue(json.toString().contains("\"candidatesEnumerated\": "));
+    }
+
+    @Test
+    void testQueueTooSmall() {
+        assertThrows(IllegalArgumentException.class, () -> new ScaleEngine(4, 2));
+    }
+
+    private List<FontGlyph> scaleAll(ScaleEngine engine, GlyphScaler scaler) throws Exception {
+        Iterator<String> it = HEX.iterator();
+        List<FontGlyph> ret = new ArrayList<>();
+        int[] codepoint = { 0 };
+        int count = engine.run(() -> it.hasNext() ? new FontGlyph(codepoint[0]++, RasterGlyph.fromUnifontHex(it.next())) : null,
+                scaler, ret::add);
+        assertEquals(HEX.size(), count);
+        return ret;
+    }
+}
@@ -0,0 +1,34 @@
+package misc.fontscale;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+public class SvgSpriteSheetTest {
+    final String AT_SYMBOL = "000000001C224A565252524E201E0000";
+    final String NUL = "AAAA00018000000180004A51EA505A51C99E0001800000018000000180005555";
+
+    @Test
+    void testLayout() throws Exception {
+        Path path = Files.createTempFile("sprites", ".svg");
+        try {
+            try (SvgSpriteSheet sheet = new SvgSpriteSheet(path, 3, 8, 16)) {
+                sheet.add(0x40, GlyphScaler.trace(RasterGlyph.fromUnifontHex(AT_SYMBOL)));
+                sheet.add(0x00, GlyphScaler.trace(RasterGlyph.fromUnifontHex(NUL)));
+                // Double-width glyph doesn't fit in the last cell, so starts a new row
+                sheet.add(0x41, GlyphScaler.trace(RasterGlyph.fromUnifontHex(NUL)));
+            }
+            String svg = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            assertTrue(svg.contains("<svg width=\"240\" height=\"0000000320\""));
+            assertTrue(svg.contains("<g id=\"U+0040\" transform=\"translate(0 0)\">"));
+            assertTrue(svg.contains("<g id=\"U+0000\" transform=\"translate(80 0)\">"));
+            assertTrue(svg.contains("<g id=\"U+0041\" transform=\"translate(0 160)\">"));
+            assertTrue(svg.endsWith("</svg>\n"));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
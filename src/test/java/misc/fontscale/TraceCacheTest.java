@@ -0,0 +1,47 @@
+package misc.fontscale;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+public class TraceCacheTest {
+    final String AT_SYMBOL = "000000001C224A565252524E201E0000";
+    final String NUL = "AAAA00018000000180004A51EA505A51C99E0001800000018000000180005555";
+
+    @Test
+    void testRoundTrip() throws Exception {
+        Path path = Files.createTempFile("trace-cache", ".bin");
+        try {
+            RasterGlyph foo = RasterGlyph.fromUnifontHex(AT_SYMBOL);
+            RasterGlyph bar = RasterGlyph.fromUnifontHex(NUL);
+            VectorGlyph fooTraced = GlyphScaler.trace(foo);
+            try (TraceCache cache = new TraceCache(path)) {
+                assertNull(cache.get(foo));
+                cache.put(foo, fooTraced);
+                cache.put(bar, GlyphScaler.trace(bar));
+            }
+            long length = Files.size(path);
+            try (TraceCache cache = new TraceCache(path)) {
+                assertEquals(2, cache.size());
+                VectorGlyph cached = cache.get(foo);
+                assertEquals(fooTraced.getVertices().size(), cached.getVertices().size());
+                assertEquals(fooTraced.toSvg(), cached.toSvg());
+                assertEquals(1, cache.getHits());
+            }
+            // Interrupted write of the last record: the rest is kept
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.setLength(length - 3);
+            }
+            try (TraceCache cache = new TraceCache(path)) {
+                assertEquals(1, cache.size());
+                assertNotNull(cache.get(foo));
+                assertNull(cache.get(bar));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package misc.fontscale;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+
+public class UnifontHexFontTest {
+    final String AT_SYMBOL = "000000001C224A565252524E201E0000";
+    final String NUL = "AAAA00018000000180004A51EA505A51C99E0001800000018000000180005555";
+
+    @Test
+    void testLookup() throws Exception {
+        Path dir = Files.createTempDirectory("hex-font");
+        Path path = dir.resolve("font.hex");
+        Path index = UnifontHexFont.indexPath(path);
+        try {
+            Files.write(path, ("0000:" + NUL + "\n0040:" + AT_SYMBOL + "\r\n\n1F600:" + NUL).getBytes(StandardCharsets.US_ASCII));
+            try (UnifontHexFont font = new UnifontHexFont(path)) {
+                assertEquals(3, font.size());
+                assertEquals(NUL, font.getGlyph(0).toUnifontHex());
+                assertEquals(AT_SYMBOL, font.getGlyph(0x40).toUnifontHex());
+                assertEquals(NUL, font.getGlyph(0x1F600).toUnifontHex());
+                assertNull(font.getGlyph(0x41));
+                assertNull(font.getGlyph(0x1F700));
+                assertNull(font.getGlyph(-1));
+            }
+            assertTrue(Files.exists(index));
+            // Index is re-used
+            try (UnifontHexFont font = new UnifontHexFont(path)) {
+                assertEquals(AT_SYMBOL, font.getGlyph(0x40).toUnifontHex());
+            }
+            // Index is rebuilt when the font changes
+            Files.write(path, ("\n0041:" + AT_SYMBOL).getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+            try (UnifontHexFont font = new UnifontHexFont(path)) {
+                assertEquals(4, font.size());
+                assertEquals(AT_SYMBOL, font.getGlyph(0x41).toUnifontHex());
+            }
+            // Unreadable index is ignored
+            Files.write(index, new byte[] { 1, 2, 3 });
+            try (UnifontHexFont font = new UnifontHexFont(path)) {
+                assertEquals(NUL, font.getGlyph(0x1F600).toUnifontHex());
+            }
+        } finally {
+            Files.deleteIfExists(index);
+            Files.deleteIfExists(path);
+            Files.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package misc.fontscale;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class UnifontHexReaderTest {
+    final String AT_SYMBOL = "000000001C224A565252524E201E0000";
+    final String NUL = "AAAA00018000000180004A51EA505A51C99E0001800000018000000180005555";
+
+    @Test
+    void testRead() throws Exception {
+        // Long enough that records straddle the read buffer
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append(String.format("%04X:%s", i, (i % 3) == 0 ? NUL : AT_SYMBOL.toLowerCase()));
+            sb.append((i % 2) == 0 ? "\n" : "\r\n\n");
+        }
+        sb.append("10FFFF:" + AT_SYMBOL);
+        byte[] file = sb.toString().getBytes(StandardCharsets.US_ASCII);
+        try (UnifontHexReader in = new UnifontHexReader(Channels.newChannel(new ByteArrayInputStream(file)))) {
+            checkRead(in);
+        }
+        ByteBuffer mapped = ByteBuffer.wrap(file);
+        try (UnifontHexReader in = new UnifontHexReader(mapped)) {
+            checkRead(in);
+        }
+        assertEquals(0, mapped.position());
+    }
+
+    private void checkRead(UnifontHexReader in) throws IOException {
+        for (int i = 0; i < 5000; i++) {
+            FontGlyph glyph = in.next();
+            assertEquals(i, glyph.getCodepoint());
+            assertEquals((i % 3) == 0 ? NUL : AT_SYMBOL, glyph.getRaster().toUnifontHex());
+        }
+        assertEquals(0x10FFFF, in.next().getCodepoint());
+        assertNull(in.next());
+        assertNull(in.next());
+    }
+
+    @Test
+    void testBadRecord() throws Exception {
+        byte[] file = ("0040:" + AT_SYMBOL + "\n\n0041:" + AT_SYMBOL.replace('C', 'X') + "\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        try (UnifontHexReader in = new UnifontHexReader(ByteBuffer.wrap(file))) {
+            assertNotNull(in.next());
+            IOException e = assertThrows(IOException.class, () -> in.next());
+            assertTrue(e.getMessage().startsWith("Line 3: "));
+        }
+        try (UnifontHexReader in = new UnifontHexReader(ByteBuffer.wrap("0040\n".getBytes(StandardCharsets.US_ASCII)))) {
+            assertThrows(IOException.class, () -> in.next());
+        }
+    }
+}
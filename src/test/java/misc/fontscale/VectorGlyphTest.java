@@ -3,6 +3,13 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
 
@@ -23,6 +30,203 @@ public class VectorGlyphTest {
         assertEquals("#-\n", bar.toString());
     }
 
+    @Test
+    void testCombineEdgesKeepsRaster() {
+        RasterGlyph foo = RasterGlyph.fromUnifontHex("000000001C224A565252524E201E0000");
+        VectorGlyph bar = foo.toVectorGlyph();
+        bar.joinAdjacentVertices();
+        bar.combineEdges();
+        assertTrue(bar.getVertices().size() < 30);
+        assertEquals(foo, bar.toRasterGlyph());
+    }
+
+    @Test
+    void testCombineEdgesBudget() {
+        RasterGlyph foo = RasterGlyph.fromUnifontHex("000000001C224A565252524E201E0000");
+        VectorGlyph full = foo.toVectorGlyph();
+        full.joinAdjacentVertices();
+        assertTrue(full.combineEdges(TraceBudget.UNLIMITED));
+        assertFalse(full.isOverBudget());
+        VectorGlyph partial = foo.toVectorGlyph();
+        partial.joinAdjacentVertices();
+        assertFalse(partial.combineEdges(new TraceBudget(0, 1)));
+        assertTrue(partial.isOverBudget());
+        // Less simplified, but still draws the same glyph
+        assertTrue(partial.getVertices().size() > full.getVertices().size());
+        assertEquals(foo, partial.toRasterGlyph());
+        // Exactly enough passes, including the last one which changes nothing
+        long[] passes = { 0 };
+        VectorGlyph counted = foo.toVectorGlyph();
+        counted.joinAdjacentVertices();
+        counted.setListener(counter(TraceListener.Counter.COMBINE_ITERATIONS, passes));
+        counted.combineEdges();
+        VectorGlyph exact = foo.toVectorGlyph();
+        exact.joinAdjacentVertices();
+        assertTrue(exact.combineEdges(new TraceBudget(0, (int) passes[0])));
+        assertFalse(exact.isOverBudget());
+        VectorGlyph tooFew = foo.toVectorGlyph();
+        tooFew.joinAdjacentVertices();
+        assertFalse(tooFew.combineEdges(new TraceBudget(0, (int) passes[0] - 1)));
+    }
+
+    @Test
+    void testCombineEdgesBudgetPerComponent() {
+        // The same stroke on its own, and three times over
+        RasterGlyph one = new RasterGlyph(16, 16);
+        one.line(0, 3, 0, 9);
+        RasterGlyph three = new RasterGlyph(16, 16);
+        for (int x = 0; x < 15; x += 6) {
+            three.line(x, x + 3, 0, 9);
+        }
+        long[] passes = { 0 };
+        VectorGlyph counted = one.toVectorGlyph();
+        counted.joinAdjacentVertices();
+        counted.setListener(counter(TraceListener.Counter.COMBINE_ITERATIONS, passes));
+        counted.combineEdges();
+        // Enough passes for one stroke is enough for each of them
+        VectorGlyph full = three.toVectorGlyph();
+        full.joinAdjacentVertices();
+        full.combineEdges();
+        VectorGlyph budgeted = three.toVectorGlyph();
+        budgeted.joinAdjacentVertices();
+        assertTrue(budgeted.combineEdges(new TraceBudget(0, (int) passes[0])));
+        assertEquals(full.getVertices().size(), budgeted.getVertices().size());
+        assertEquals(6, budgeted.getVertices().size());
+    }
+
+    @Test
+    void testCombineEdgesDeadlineStopsSearch() {
+        // Dense enough that finding paths takes most of the time
+        RasterGlyph foo = RasterGlyph.fromUnifontHex("01007FFC01003FF821083FF821083FF80100FFFE2AA87FFC2248552494920000");
+        long[] unlimited = { 0 };
+        GlyphScaler.trace(foo, counter(TraceListener.Counter.CANDIDATES_ENUMERATED, unlimited), TraceBudget.UNLIMITED);
+        long[] limited = { 0 };
+        VectorGlyph bar = GlyphScaler.trace(foo, counter(TraceListener.Counter.CANDIDATES_ENUMERATED, limited),
+                new TraceBudget(1, 0));
+        assertTrue(bar.isOverBudget());
+        assertTrue(limited[0] < unlimited[0] / 4);
+        assertEquals(foo, bar.toRasterGlyph());
+    }
+
+    private TraceListener counter(TraceListener.Counter which, long[] total) {
+        return new TraceListener() {
+            @Override
+            public void count(TraceListener.Counter counter, long n) {
+                if (counter == which) {
+                    total[0] += n;
+                }
+            }
+
+            @Override
+            public void stage(TraceListener.Stage stage, long nanos) {
+            }
+        };
+    }
+
+    @Test
+    void testComponents() {
+        // Two strokes which don't touch, and a dot
+        RasterGlyph foo = new RasterGlyph(8, 8);
+        foo.line(0, 5, 0, 0);
+        foo.line(7, 7, 0, 6);
+        foo.line(1, 4, 3, 6);
+        foo.setPixel(0, 7, true);
+        VectorGlyph bar = foo.toVectorGlyph();
+        bar.joinAdjacentVertices();
+        List<List<VectorGlyph.Vertex>> components = bar.components();
+        assertEquals(4, components.size());
+        assertEquals(Arrays.asList(6, 7, 4, 1), components.stream().map(List::size).collect(Collectors.toList()));
+        // Ordered by first vertex
+        assertEquals(0, components.get(0).get(0).getY());
+        assertEquals(7, components.get(1).get(0).getX());
+        assertEquals(1, components.get(2).get(0).getX());
+        // Simplified separately, but the same as if done together
+        bar.combineEdges();
+        assertEquals(foo, bar.toRasterGlyph());
+        assertEquals(7, bar.getVertices().size());
+    }
+
+    /**
+     * Exact output of the baseline, which picks the longest chain of vertices
+     * first, then the longest path, then the first found. Changes to how
+     * candidates are searched or sorted must not change which merges are made.
+     * None of these hit the candidate limit, where the baseline gave up early.
+     */
+    @Test
+    void testCombineEdgesOrder() {
+        assertEquals("3,4-5,4 3,4-1,6 5,4-6,5 6,5-6,7 1,6-1,11 4,6-3,7 4,6-5,7 3,7-3,10 5,7-6,7 6,7-6,11 3,10-4,11 1,11-3,13 4,11-6,11 3,13-6,13",
+                edges("000000001C224A565252524E201E0000"));
+        assertEquals("0,0-0,0 2,0-2,0 4,0-4,0 6,0-6,0 8,0-8,0 10,0-10,0 12,0-12,0 14,0-14,0 15,1-15,1 0,2-0,2 15,3-15,3 0,4-0,4 1,5-1,8 1,5-4,8 4,5-4,8 6,5-6,7 9,5-9,7 11,5-11,8 15,5-15,5 0,6-0,6 6,7-7,8 9,7-8,8 15,7-15,7 0,8-0,8 7,8-8,8 11,8-14,8 15,9-15,9 0,10-0,10 15,11-15,11 0,12-0,12 15,13-15,13 0,14-0,14 1,15-1,15 3,15-3,15 5,15-5,15 7,15-7,15 9,15-9,15 11,15-11,15 13,15-13,15 15,15-15,15",
+                edges("AAAA00018000000180004A51EA505A51C99E0001800000018000000180005555"));
+        assertEquals("3,5-3,8 0,8-3,8 3,8-7,8 3,8-3,15",
+                edges("0000000000101010FF10101010101010"));
+        assertEquals("1,1-8,1 1,1-1,7 8,1-14,1 8,1-8,7 14,1-14,7 1,7-8,7 1,7-1,13 8,7-14,7 8,7-8,13 14,7-14,13 1,13-8,13 1,13-1,14 8,13-14,13 14,13-14,14",
+                edges("00007FFE408240824082408240827FFE408240824082408240827FFE40020000"));
+        // Merges which depend on ties being broken by vertex id
+        assertEquals("9,8-11,8 9,8-9,10 11,8-11,9 4,9-7,11 10,9-10,9 11,9-9,10 11,9-11,10 9,10-7,11",
+                edges("0000000000000000000000000000000000700870067001800000000000000000"));
+        // Merges which depend on the longest path going first
+        assertEquals("0,2-0,7 11,2-11,8 4,4-4,9 1,6-0,7 1,6-3,10 0,7-0,10 13,7-11,8 11,8-10,9 11,8-11,12 4,9-5,9 4,9-3,10 4,9-5,10 5,9-5,10 7,14-15,14",
+                edges("000000008010801088108810C810C814A818AC30941000100010000001FF0000"));
+    }
+
+    /**
+     * @return Edges of the traced glyph, each as x1,y1-x2,y2 from the first
+     *         vertex in row-major order, in row-major order.
+     */
+    private String edges(String hex) {
+        VectorGlyph glyph = RasterGlyph.fromUnifontHex(hex).toVectorGlyph();
+        glyph.joinAdjacentVertices();
+        glyph.disconnectDottedOutline();
+        glyph.disconnectFilledAreas();
+        glyph.combineEdges();
+        List<String> ret = new ArrayList<>();
+        // Vertices and neighbours both iterate in row-major order
+        for (VectorGlyph.Vertex v : glyph.getVertices()) {
+            for (VectorGlyph.Vertex o : v.getNeighbours()) {
+                if ((o.getY() > v.getY()) || ((o.getY() == v.getY()) && (o.getX() >= v.getX()))) {
+                    ret.add(v.getX() + "," + v.getY() + "-" + o.getX() + "," + o.getY());
+                }
+            }
+        }
+        return String.join(" ", ret);
+    }
+
+    @Test
+    void testNeighbours() {
+        VectorGlyph foo = new VectorGlyph(8, 8);
+        foo.addVertex(3, 3);
+        foo.addVertex(0, 7);
+        foo.addVertex(4, 3);
+        foo.addVertex(2, 2);
+        foo.addVertex(7, 0);
+        // Row-major order
+        Iterator<VectorGlyph.Vertex> it = foo.getVertices().iterator();
+        VectorGlyph.Vertex v70 = it.next();
+        VectorGlyph.Vertex v22 = it.next();
+        VectorGlyph.Vertex v33 = it.next();
+        VectorGlyph.Vertex v43 = it.next();
+        VectorGlyph.Vertex v07 = it.next();
+        assertEquals(7, v70.getX());
+        assertEquals(7, v07.getY());
+        // Mix of adjacent, long-range and self links
+        v33.join(v07);
+        v33.join(v43);
+        v33.join(v70);
+        v33.join(v33);
+        v33.join(v22);
+        v33.join(v43);
+        assertEquals(5, v33.getNeighbours().size());
+        assertEquals(Arrays.asList(v70, v22, v33, v43, v07), new ArrayList<>(v33.getNeighbours()));
+        assertTrue(v07.getNeighbours().contains(v33));
+        assertTrue(v43.getNeighbours().contains(v33));
+        assertFalse(v43.getNeighbours().contains(v22));
+        v33.unjoin(v07);
+        v43.unjoin(v33);
+        assertEquals(Arrays.asList(v70, v22, v33), new ArrayList<>(v33.getNeighbours()));
+        assertEquals(0, v07.getNeighbours().size());
+    }
+
     @Test
     void testSvg() {
         RasterGlyph foo = RasterGlyph.fromUnifontHex("000000001C224A565252524E201E0000");
@@ -32,6 +236,29 @@ public class VectorGlyphTest {
         String svg = bar.toSvg();
         // Can't really validate the SVG, but we know there's no exceptions at least.
     }
+
+    @Test
+    void testSvgBacking() {
+        VectorGlyph foo = GlyphScaler.trace(RasterGlyph.fromUnifontHex("AAAA00018000000180004A51EA505A51C99E0001800000018000000180005555"));
+        assertEquals(foo.toRasterGlyph(RasterOption.LINES_ONLY), svgBacking(foo));
+        // Backing squares are the lines without the dots
+        VectorGlyph bar = new VectorGlyph(8, 2);
+        bar.addVertex(0, 0);
+        bar.addVertex(3, 0);
+        bar.addVertex(6, 1);
+        bar.getVertices().iterator().next().join(bar.getVertices().stream().skip(1).findFirst().get());
+        assertEquals("####----\n--------\n", svgBacking(bar).toString());
+        assertEquals(bar.toRasterGlyph(RasterOption.LINES_ONLY), svgBacking(bar));
+    }
+
+    private RasterGlyph svgBacking(VectorGlyph glyph) {
+        RasterGlyph ret = new RasterGlyph(glyph.getGeometry().getWidth(), glyph.getGeometry().getHeight());
+        Matcher m = Pattern.compile("<rect x=\"(\\d+)\" y=\"(\\d+)\"").matcher(glyph.toSvg());
+        while (m.find()) {
+            ret.setPixel(Integer.parseInt(m.group(1)) / 10, Integer.parseInt(m.group(2)) / 10, true);
+        }
+        return ret;
+    }
     
     @Test
     void tmp() {
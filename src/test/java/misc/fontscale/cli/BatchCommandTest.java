@@ -0,0 +1,68 @@
+package misc.fontscale.cli;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import misc.fontscale.GlyphScaler;
+import misc.fontscale.RasterGlyph;
+
+public class BatchCommandTest {
+    final String NARROW = "000000001C224A565252524E201E0000";
+
+    final String WIDE = "AAAA00018000000180004A51EA505A51C99E0001800000018000000180005555";
+
+    @Test
+    void testWideGlyphs() throws Exception {
+        Path dir = Files.createTempDirectory("batch");
+        Path input = dir.resolve("in.hex");
+        Path output = dir.resolve("out.hex");
+        Files.write(input, Arrays.asList("0041:" + NARROW, "4E00:" + WIDE));
+        BatchCommand batch = batch(input, output);
+        batch.run();
+        List<String> lines = Files.readAllLines(output);
+        assertEquals(2, lines.size());
+        assertEquals("0041:" + new GlyphScaler("detect", "12x24", "full").scale(RasterGlyph.fromUnifontHex(NARROW))
+                .toUnifontHex(), lines.get(0));
+        // Twice as wide as a narrow glyph, so it gets twice the width
+        assertEquals("4E00:" + new GlyphScaler("detect", "24x24", "full").scale(RasterGlyph.fromUnifontHex(WIDE))
+                .toUnifontHex(), lines.get(1));
+        // Copied from the last run, wide glyph included
+        batch = batch(input, output);
+        batch.manifest = dir.resolve("out.manifest").toString();
+        batch.run();
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true));
+        try {
+            batch.run();
+        } finally {
+            System.setOut(stdout);
+        }
+        assertTrue(printed.toString().contains("2 glyphs unchanged, 0 traced"), printed.toString());
+        assertEquals(lines, Files.readAllLines(output));
+        // Everything squashed onto the same canvas
+        batch = batch(input, output);
+        batch.narrowWidth = 0;
+        batch.run();
+        assertEquals("4E00:" + new GlyphScaler("detect", "12x24", "full").scale(RasterGlyph.fromUnifontHex(WIDE))
+                .toUnifontHex(), Files.readAllLines(output).get(1));
+    }
+
+    private BatchCommand batch(Path input, Path output) {
+        BatchCommand ret = new BatchCommand();
+        ret.input = input.toString();
+        ret.srcGeometrySpec = "detect";
+        ret.dimensions = "12x24";
+        ret.dstGeometrySpec = "full";
+        ret.output = output.toString();
+        ret.workers = 2;
+        return ret;
+    }
+}